@@ -0,0 +1,51 @@
+package com.muyuanjin.compiler;
+
+import java.time.Duration;
+
+/**
+ * 协作式取消一次编译：可以由其他线程主动 {@link #cancel() 取消}，也可以在创建时给定截止时间。
+ * <p>
+ * 编译在 javac 的各个阶段之间、以及逐个类进行属性分析（attribution）之前检查令牌，
+ * 取消后尽快结束并返回 {@link CompilationResult#cancelled() 已取消} 的结果，所用的 Context 正常清理后归还到池中。
+ * 单个类的属性分析过程中不会被打断
+ */
+public final class CancellationToken {
+    private final long deadline;
+    private final boolean hasDeadline;
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this.deadline = 0;
+        this.hasDeadline = false;
+    }
+
+    private CancellationToken(long deadline) {
+        this.deadline = deadline;
+        this.hasDeadline = true;
+    }
+
+    /**
+     * @return 从现在起经过 timeout 后自动取消的令牌
+     */
+    public static CancellationToken timeout(Duration timeout) {
+        return new CancellationToken(System.nanoTime() + timeout.toNanos());
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return 是否已被取消或已超过截止时间
+     */
+    public boolean isCancelled() {
+        if (cancelled) {
+            return true;
+        }
+        if (hasDeadline && System.nanoTime() - deadline >= 0) {
+            cancelled = true;
+            return true;
+        }
+        return false;
+    }
+}
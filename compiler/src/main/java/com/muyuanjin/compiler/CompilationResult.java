@@ -14,7 +14,8 @@ import java.util.function.Predicate;
 public record CompilationResult(
         @Singular List<CompilationProblem> errors,
         @Singular List<CompilationProblem> warnings,
-        @Singular("clazz") List<Clazz> classes
+        @Singular("clazz") List<Clazz> classes,
+        boolean cancelled
 ) {
     public CompilationResult {
         for (CompilationProblem error : errors) {
@@ -29,8 +30,22 @@ public record CompilationResult(
         }
     }
 
+    /**
+     * 未取消的编译结果，保留增加 {@link #cancelled()} 之前的构造器
+     */
+    public CompilationResult(List<CompilationProblem> errors, List<CompilationProblem> warnings, List<Clazz> classes) {
+        this(errors, warnings, classes, false);
+    }
+
     public boolean isSuccessful() {
-        return errors.isEmpty();
+        return !cancelled && errors.isEmpty();
+    }
+
+    /**
+     * @return 因 {@link CancellationToken} 取消或超时而提前结束的编译结果
+     */
+    public static CompilationResult ofCancelled() {
+        return builder().cancelled(true).build();
     }
 
     public List<LoadedClazz> loadAll() {
@@ -124,6 +139,8 @@ public record CompilationResult(
                     return loader.loadClass(result.name, result.bytes);
                 }
             }
+        } else if (cancelled) {
+            throw new IllegalStateException("The compilation was cancelled");
         } else {
             throw new IllegalStateException("There are compilation errors:" + errors);
         }
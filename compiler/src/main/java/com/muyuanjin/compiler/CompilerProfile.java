@@ -0,0 +1,144 @@
+package com.muyuanjin.compiler;
+
+import com.github.benmanes.caffeine.cache.Interner;
+import lombok.Getter;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 不可变的编译配置，由 {@link JavaCompilerSettings} 构建一次后重复使用：
+ * javac 参数已规范化（相等的参数列表共享同一个实例，哈希预先计算），字符集已解析。
+ * <p>
+ * 热点路径上用同一个 profile 编译，省去每次调用构建参数列表、解析字符集和对参数列表求哈希的开销，
+ * 池按参数列表查找分片时也只需一次身份比较。
+ * <p>
+ * 参数分为两类：{@link #getContextOptions()} 是影响 Context 结构的参数（-source、-target、-encoding、类路径等），
+ * 决定 Context 能否复用；其余是只影响诊断和调试信息的参数（见 {@link #isPerTaskOption(String)}），
+ * 在每次任务开始时重置，只有这类参数不同的编译共享同一批 Context
+ */
+public final class CompilerProfile {
+    private static final Interner<Options> OPTIONS = Interner.newWeakInterner();
+
+    /**
+     * 完整的 javac 参数
+     */
+    @Getter
+    private final List<String> options;
+    /**
+     * 去掉 {@link #isPerTaskOption(String) 每次任务可以重置的参数} 后剩下的参数，池按它划分 Context
+     */
+    @Getter
+    private final List<String> contextOptions;
+    @Getter
+    private final Charset charset;
+    private final int hash;
+
+    private CompilerProfile(Options options, Charset charset) {
+        this.options = options;
+        this.contextOptions = options.hasPerTaskOption() ? OPTIONS.intern(new Options(options.contextOptions())) : options;
+        this.charset = charset;
+        this.hash = 31 * options.hashCode() + charset.hashCode();
+    }
+
+    public static CompilerProfile of(JavaCompilerSettings settings) {
+        return of(settings.toJavacOptions(), Charset.forName(settings.getSourceEncoding()));
+    }
+
+    public static CompilerProfile of(Iterable<String> options, Charset charset) {
+        return new CompilerProfile(OPTIONS.intern(new Options(options)), charset);
+    }
+
+    /**
+     * 是否是只影响诊断和调试信息、可以在每次任务开始时重置的参数：-Xlint、-deprecation、-g、-nowarn、-Werror
+     */
+    public static boolean isPerTaskOption(String option) {
+        return option.equals("-g") || option.startsWith("-g:")
+               || option.equals("-Xlint") || option.startsWith("-Xlint:")
+               || option.equals("-deprecation") || option.equals("-nowarn") || option.equals("-Werror");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof CompilerProfile that && hash == that.hash
+               && options.equals(that.options) && charset.equals(that.charset);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "CompilerProfile" + options + " " + charset;
+    }
+
+    /**
+     * 不可变的参数列表，哈希在构建时计算，比较时先比较身份；相等的列表由弱驻留器规范为同一个实例
+     */
+    private static final class Options extends AbstractList<String> implements RandomAccess {
+        private final String[] values;
+        private final int hash;
+
+        Options(Iterable<String> options) {
+            List<String> list = new ArrayList<>();
+            for (String option : options) {
+                list.add(option);
+            }
+            this.values = list.toArray(String[]::new);
+            this.hash = super.hashCode();
+        }
+
+        @Override
+        public String get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        boolean hasPerTaskOption() {
+            for (String value : values) {
+                if (isPerTaskOption(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<String> contextOptions() {
+            List<String> result = new ArrayList<>(values.length);
+            for (String value : values) {
+                if (!isPerTaskOption(value)) {
+                    result.add(value);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o instanceof Options that && hash != that.hash) {
+                return false;
+            }
+            return super.equals(o);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.muyuanjin.compiler.impl;
 import com.muyuanjin.compiler.util.JFields;
 import com.muyuanjin.compiler.util.JModules;
 import com.muyuanjin.compiler.util.JUnsafe;
+import com.sun.tools.javac.code.Kinds;
 import com.sun.tools.javac.code.Scope;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symtab;
@@ -10,6 +11,7 @@ import com.sun.tools.javac.code.Types;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.ListBuffer;
 import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.SharedNameTable;
 import lombok.NonNull;
 import lombok.SneakyThrows;
 import lombok.experimental.UtilityClass;
@@ -104,12 +106,15 @@ public class CompileUtil {
 
     private static final Field CLASSES = JFields.getField(Symtab.class, "classes");
     private static final Field LISTENERS = JFields.getField(Scope.class, "listeners");
-    private static final Field NIL_SCOPE = JFields.getField(JUnsafe.getClassByName(
+    private static final Class<?> MEMBERS_CLOSURE_CACHE = JUnsafe.getClassByName(
             "com.sun.tools.javac.code.Types$MembersClosureCache",
-            true, Types.class.getClassLoader(), Types.class), "nilScope");
+            true, Types.class.getClassLoader(), Types.class);
+    private static final Field NIL_SCOPE = JFields.getField(MEMBERS_CLOSURE_CACHE, "nilScope");
+    private static final Field MEMBERS_CLOSURES = JFields.getField(MEMBERS_CLOSURE_CACHE, "_map");
     private static final Field SUB_SCOPES = JFields.getField(Scope.CompoundScope.class, "subScopes");
     private static final Field MEMBERS_CACHE = JFields.getField(Types.class, "membersCache");
     private static final Field LIST_LISTENERS = JFields.getField(Scope.ScopeListenerList.class, "listeners");
+    private static final Field NAME_HASHES = JFields.getField(SharedNameTable.class, "hashes");
 
     /**
      * JDK bug, {@link Types#newRound} 在清除缓存时，没有清除{@link Types.MembersClosureCache#nilScope}，会导致大量的内存泄露
@@ -131,6 +136,43 @@ public class CompileUtil {
         return Objects.requireNonNullElse(classes.remove(flatName), Collections.emptyMap());
     }
 
+    /**
+     * 把从 class 文件补全的类连同其成员类还原为未补全状态（与注解处理在两轮之间重置类的方式相同），释放成员作用域。
+     * ClassSymbol 本身仍在符号表中，其他符号对它的引用保持有效，下次用到时由 completer 重新从 class 文件补全。
+     * 成员类的修饰符和外部类型由外部类的 InnerClasses 属性设置，所以只能从顶层类开始还原
+     */
+    public static void uncomplete(Symbol.ClassSymbol clazz, Symbol.Completer completer) {
+        if (clazz.members_field != null) {
+            for (Symbol member : clazz.members_field.getSymbols(s -> s.kind == Kinds.Kind.TYP, Scope.LookupKind.NON_RECURSIVE)) {
+                uncomplete((Symbol.ClassSymbol) member, completer);
+            }
+        }
+        clazz.reset();
+        clazz.completer = completer;
+    }
+
+    /**
+     * @return 符号表中类名的数量，O(1)
+     */
+    @SneakyThrows
+    @SuppressWarnings("rawtypes")
+    public static int size(Symtab symtab) {
+        Map classes = (Map) CLASSES.get(symtab);
+        return classes == null ? 0 : classes.size();
+    }
+
+    /**
+     * 估计名字表占用的字节数：名字的 UTF-8 字节数组加上哈希桶数组，无法估计时返回 0
+     */
+    @SneakyThrows
+    public static long estimateSize(Name.Table table) {
+        if (table instanceof SharedNameTable sharedNameTable) {
+            Object[] hashes = (Object[]) NAME_HASHES.get(sharedNameTable);
+            return sharedNameTable.bytes.length + (long) hashes.length * Integer.BYTES;
+        }
+        return 0;
+    }
+
     @SneakyThrows
     @SuppressWarnings({"unchecked", "rawtypes"})
     public static void clear(Symtab symtab) {
@@ -147,6 +189,24 @@ public class CompileUtil {
                 });
     }
 
+    /**
+     * 移除本次编译在 Scope 上注册的监听器，在 {@link Types#newRound} 之前调用。
+     * <p>
+     * 只有 CompoundScope 会在其子作用域上注册监听器，而子作用域中长期存在的（从 class 文件补全的类的成员作用域）
+     * 只会被 {@link Types#membersClosure} 创建的 CompoundScope 注册，这些 CompoundScope 缓存在 Types 中直到 newRound 才被丢弃。
+     * 丢弃之前逐个从其子作用域中移除，开销只与本次编译用到的类型数量有关，与符号表的大小无关
+     */
+    @SneakyThrows
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static void clearListeners(Types types) {
+        Map<Symbol.TypeSymbol, Scope.CompoundScope> closures = (Map) MEMBERS_CLOSURES.get(MEMBERS_CACHE.get(types));
+        for (Scope.CompoundScope closure : closures.values()) {
+            for (Scope scope : (ListBuffer<Scope>) SUB_SCOPES.get(closure)) {
+                removeListener(scope, closure);
+            }
+        }
+    }
+
     /**
      * {@link Scope#listeners} ,{@link Scope.ScopeListenerList#add} 没有清理 失效的 weakReference，累积之后会导致内存泄漏
      */
@@ -160,6 +220,15 @@ public class CompileUtil {
             ListBuffer<Scope> o1 = (ListBuffer) SUB_SCOPES.get(compoundScope);
             o1.forEach(CompileUtil::clear);
         }
+        removeListener(scope, null);
+    }
+
+    /**
+     * 从 Scope 的监听器中移除失效的 weakReference 以及指定的监听器
+     */
+    @SneakyThrows
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void removeListener(Scope scope, Scope.ScopeListener listener) {
         Scope.ScopeListenerList listenerList = (Scope.ScopeListenerList) LISTENERS.get(scope);
         if (listenerList == null) {
             return;
@@ -173,9 +242,11 @@ public class CompileUtil {
 
         // 使用for循环和tail手动遍历链表，移除失效的WeakReference
         List<WeakReference<Scope.ScopeListener>> prev = null;
-        for (current = first; current != null; current = current.tail) {
-            if (current.head == null || current.head.get() == null) {
-                // 引用已失效
+        // 末尾的 nil 不是节点，tail 为 null 的 List 会被当作空表，所以遍历到 nil 为止
+        for (current = first; current.nonEmpty(); current = current.tail) {
+            Scope.ScopeListener head = current.head == null ? null : current.head.get();
+            if (head == null || head == listener) {
+                // 引用已失效或是要移除的监听器
                 if (prev != null) {
                     prev.tail = current.tail;  // 移除当前节点
                 } else {
@@ -185,9 +256,6 @@ public class CompileUtil {
                 prev = current;  // 更新前一个有效的节点
             }
         }
-        if (first == null) {
-            first = List.nil();
-        }
         LIST_LISTENERS.set(listenerList, first);
     }
 }
@@ -0,0 +1,221 @@
+package com.muyuanjin.compiler.impl;
+
+import com.sun.tools.javac.util.Convert;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import com.sun.tools.javac.util.UnsharedNameTable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 池中所有 Context 共享的线程安全名字表。
+ * <p>
+ * 每个 Context 默认有自己的 {@link com.sun.tools.javac.util.SharedNameTable}，JDK 和类路径中的名字每个 Context 存一份，
+ * 并且名字只增不减：长期复用的 Context 中，生成代码里各不相同的标识符会让名字表无限增长。
+ * 这里同一个名字在整个池中只有一个 {@link Name} 实例，符号表、语法树中仍在使用的名字由它们强引用，
+ * 只在已结束的编译中出现过的名字只被弱引用，可以被 GC 回收，回收后的表项在之后插入时清除。
+ * <p>
+ * javac 的 {@link Name.Table} 构造器不公开，所以继承 {@link UnsharedNameTable}（与其相同，每个名字持有自己的字节数组），
+ * 只使用长度为 1 的父类哈希表，查找和插入由这里的分段锁哈希表完成。
+ * 哈希表从较小的容量开始，名字数量超过桶数的两倍时加倍；分段锁使用 {@link ReentrantLock}，在虚拟线程上编译时不会钉住载体线程
+ */
+final class ConcurrentNameTable extends UnsharedNameTable {
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int MAXIMUM_CAPACITY = 1 << 24;
+    private static final int LOCK_COUNT = 64;
+
+    /**
+     * 桶的下标取哈希值的低位，分段锁的下标取其中更低的几位，扩容前后同一个名字始终由同一把锁保护
+     */
+    private volatile Entry[] hashes = new Entry[INITIAL_CAPACITY];
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_COUNT];
+    private final ReferenceQueue<NameImpl> queue = new ReferenceQueue<>();
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param names 表中的标准名字，即第一个使用该表的 Context 的 {@link Names}
+     */
+    ConcurrentNameTable(Names names) {
+        super(names, 1);
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public Name fromChars(char[] cs, int start, int len) {
+        byte[] name = new byte[len * 3];
+        int nbytes = Convert.chars2utf(cs, start, name, 0, len);
+        return fromUtf(name, 0, nbytes);
+    }
+
+    @Override
+    public Name fromUtf(byte[] cs, int start, int len) {
+        expunge();
+        int hash = hashValue(cs, start, len);
+        ReentrantLock lock = locks[hash & (LOCK_COUNT - 1)];
+        Entry[] table;
+        NameImpl n;
+        lock.lock();
+        try {
+            // 扩容需要持有所有的锁，持有任意一把锁时读到的就是当前的哈希表
+            table = hashes;
+            int h = hash & (table.length - 1);
+            for (Entry e = table[h]; e != null; e = e.next) {
+                NameImpl existing = e.get();
+                if (existing != null && existing.bytes.length == len && equals(existing.bytes, 0, cs, start, len)) {
+                    return existing;
+                }
+            }
+            byte[] name = new byte[len];
+            System.arraycopy(cs, start, name, 0, len);
+            n = new NameImpl(this, name, nextIndex.getAndIncrement());
+            table[h] = new Entry(n, hash, table[h], queue);
+            bytes.add(len);
+        } finally {
+            lock.unlock();
+        }
+        if (size.incrementAndGet() > table.length * 2) {
+            resize(table);
+        }
+        return n;
+    }
+
+    /**
+     * 共享的名字表随池存在，单个 Context 的 {@link Names#dispose()} 不释放它
+     */
+    @Override
+    public void dispose() {
+    }
+
+    /**
+     * @return 表中的名字数量，包括已被回收但尚未清除的
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * @return 表中名字的 UTF-8 字节总数，包括已被回收但尚未清除的
+     */
+    long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * 持有所有的锁，把表项重新分配到两倍大小的哈希表中，其他线程已完成扩容时什么也不做
+     */
+    private void resize(Entry[] old) {
+        if (old.length >= MAXIMUM_CAPACITY) {
+            return;
+        }
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            if (hashes != old) {
+                return;
+            }
+            Entry[] table = new Entry[old.length << 1];
+            for (Entry head : old) {
+                Entry next;
+                for (Entry e = head; e != null; e = next) {
+                    next = e.next;
+                    int h = e.hash & (table.length - 1);
+                    e.next = table[h];
+                    table[h] = e;
+                }
+            }
+            hashes = table;
+        } finally {
+            for (ReentrantLock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 从哈希链中移除名字已被回收的表项
+     */
+    private void expunge() {
+        Entry stale;
+        while ((stale = (Entry) queue.poll()) != null) {
+            ReentrantLock lock = locks[stale.hash & (LOCK_COUNT - 1)];
+            lock.lock();
+            try {
+                Entry[] table = hashes;
+                int h = stale.hash & (table.length - 1);
+                Entry prev = null;
+                for (Entry e = table[h]; e != null; prev = e, e = e.next) {
+                    if (e == stale) {
+                        if (prev == null) {
+                            table[h] = e.next;
+                        } else {
+                            prev.next = e.next;
+                        }
+                        size.decrementAndGet();
+                        bytes.add(-stale.length);
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Entry extends WeakReference<NameImpl> {
+        final int hash;
+        final int length;
+        Entry next;
+
+        Entry(NameImpl name, int hash, Entry next, ReferenceQueue<NameImpl> queue) {
+            super(name, queue);
+            this.hash = hash;
+            this.length = name.bytes.length;
+            this.next = next;
+        }
+    }
+
+    private static final class NameImpl extends Name {
+        final byte[] bytes;
+        final int index;
+
+        NameImpl(ConcurrentNameTable table, byte[] bytes, int index) {
+            super(table);
+            this.bytes = bytes;
+            this.index = index;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public int getByteLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte getByteAt(int i) {
+            return bytes[i];
+        }
+
+        @Override
+        public byte[] getByteArray() {
+            return bytes;
+        }
+
+        @Override
+        public int getByteOffset() {
+            return 0;
+        }
+    }
+}
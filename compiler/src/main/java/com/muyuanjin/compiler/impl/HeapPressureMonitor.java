@@ -0,0 +1,104 @@
+package com.muyuanjin.compiler.impl;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.*;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 监听老年代的 collection usage threshold 通知，GC 后老年代占用仍超过水位线时通知各个 {@link JavacTaskPool} 收缩。
+ * <p>
+ * 阈值是 JVM 全局的，所以只注册一次监听，阈值取所有池中最低的水位线，各个池收到通知后再按自己的水位线判断是否收缩
+ */
+final class HeapPressureMonitor implements NotificationListener {
+    private static final HeapPressureMonitor INSTANCE = new HeapPressureMonitor();
+
+    private final Set<WeakReference<JavacTaskPool>> pools = ConcurrentHashMap.newKeySet();
+    /**
+     * 所有池中最低的水位线（{@link Double#doubleToLongBits}），只降不升
+     */
+    private final AtomicLong watermark = new AtomicLong(Double.doubleToLongBits(1));
+    private final AtomicBoolean installed = new AtomicBoolean();
+
+    private HeapPressureMonitor() {
+    }
+
+    /**
+     * @param watermark GC 后老年代占用与其最大容量之比，取值 (0, 1)
+     */
+    static void register(JavacTaskPool pool, double watermark) {
+        INSTANCE.add(pool, watermark);
+    }
+
+    private void add(JavacTaskPool pool, double watermark) {
+        pools.add(new WeakReference<>(pool));
+        if (lower(watermark)) {
+            // 并发注册时较高的水位线可能最后才设置到 JVM 上，设置后水位线又被降低时重新设置，直到与当前的水位线一致
+            double applied;
+            do {
+                applied = watermark();
+                applyThreshold(applied);
+            } while (applied != watermark());
+        }
+        if (ManagementFactory.getMemoryMXBean() instanceof NotificationEmitter emitter && installed.compareAndSet(false, true)) {
+            emitter.addNotificationListener(this, null, null);
+        }
+    }
+
+    private double watermark() {
+        return Double.longBitsToDouble(watermark.get());
+    }
+
+    /**
+     * @return 水位线是否被降低
+     */
+    private boolean lower(double watermark) {
+        long current;
+        do {
+            current = this.watermark.get();
+            if (watermark >= Double.longBitsToDouble(current)) {
+                return false;
+            }
+        } while (!this.watermark.compareAndSet(current, Double.doubleToLongBits(watermark)));
+        return true;
+    }
+
+    private static void applyThreshold(double watermark) {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // 只有老年代同时支持 usage threshold 和 collection usage threshold
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.isUsageThresholdSupported()
+                && memoryPool.isCollectionUsageThresholdSupported()) {
+                long max = memoryPool.getUsage().getMax();
+                if (max > 0) {
+                    memoryPool.setCollectionUsageThreshold((long) (max * watermark));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            return;
+        }
+        MemoryUsage usage = MemoryNotificationInfo.from((CompositeData) notification.getUserData()).getUsage();
+        if (usage.getMax() <= 0) {
+            return;
+        }
+        double ratio = (double) usage.getUsed() / usage.getMax();
+        for (WeakReference<JavacTaskPool> reference : pools) {
+            JavacTaskPool pool = reference.get();
+            if (pool == null) {
+                pools.remove(reference);
+            } else {
+                pool.onHeapPressure(ratio);
+            }
+        }
+    }
+}
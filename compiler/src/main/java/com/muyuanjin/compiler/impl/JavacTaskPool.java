@@ -25,6 +25,12 @@
 package com.muyuanjin.compiler.impl;
 
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.muyuanjin.compiler.CancellationToken;
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.Priority;
 import com.muyuanjin.compiler.util.JFields;
 import com.muyuanjin.compiler.util.JMethods;
 import com.sun.source.tree.ClassTree;
@@ -40,11 +46,14 @@ import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.code.Type.ClassType;
 import com.sun.tools.javac.comp.*;
 import com.sun.tools.javac.file.CacheFSInfo;
+import com.sun.tools.javac.file.FSInfo;
 import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.jvm.ClassReader;
 import com.sun.tools.javac.main.Arguments;
 import com.sun.tools.javac.main.JavaCompiler;
 import com.sun.tools.javac.model.JavacElements;
 import com.sun.tools.javac.platform.PlatformDescription;
+import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.JCTree.JCClassDecl;
 import com.sun.tools.javac.tree.JCTree.LetExpr;
 import com.sun.tools.javac.util.*;
@@ -54,15 +63,29 @@ import lombok.SneakyThrows;
 import javax.tools.*;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Serial;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.function.Consumer;
 
 /**
  * A pool of reusable JavacTasks. When a task is no valid anymore, it is returned to the pool,
@@ -94,7 +117,7 @@ import java.util.stream.StreamSupport;
  * Licensed under the GNU General Public License version 2 only, with Classpath exception.
  * Modifications made by muyuanjin on 2024/5/5.
  */
-public class JavacTaskPool {
+public class JavacTaskPool implements AutoCloseable {
     static final boolean MODIFY_BY_AGENT;
 
     static {
@@ -110,244 +133,1658 @@ public class JavacTaskPool {
     }
 
     private static final JavacTool systemProvider = JavacTool.create();
-    private static final Queue<ReusableContext> EMPTY_QUEUE = new ArrayDeque<>(0);
     private static final MethodHandle CLEANUP = JMethods.getMethodHandle(JavacTaskImpl.class, "cleanup");
+    private static final long ESTIMATED_BYTES_PER_CLASS = 2048;
+    private static final int QUARANTINE_SIZE = 64;
+    private static final String DEFAULT_TENANT = "default";
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    /**
+     * 类加载器为 null 时分片使用的键
+     */
+    private static final ClassLoader NO_CLASS_LOADER = new ClassLoader(null) {
+    };
+    private static final String WARM_UP_CLASS = "__JavacTaskPoolWarmUp";
+    private static final String WARM_UP_SOURCE = """
+            import java.util.*;
+            import java.util.function.*;
+            import java.util.stream.*;
+            public class __JavacTaskPoolWarmUp {
+                public static Map<String, List<Integer>> warmUp(List<String> values, Function<String, Integer> mapper) {
+                    Map<String, List<Integer>> result = new HashMap<>();
+                    for (String value : values) {
+                        result.computeIfAbsent(value.trim(), k -> new ArrayList<>()).add(mapper.apply(value));
+                    }
+                    return values.stream()
+                            .filter(Objects::nonNull)
+                            .collect(Collectors.groupingBy(String::valueOf, Collectors.mapping(String::length, Collectors.toList())));
+                }
+            }
+            """;
+
+    static {
+        JFields.setValue(Source.Feature.MODULES, "maxLevel", Source.JDK1_2);
+    }
+
+    private final JavacTaskPoolSettings settings;
+    private final long maxAge;
+    private final int maxPoolSize;
+    /**
+     * 当前的空闲容量，非自适应模式下恒为 maxPoolSize，自适应模式下在 [minPoolSize, maxPoolSize] 之间调整
+     */
+    private volatile int idleCapacity;
+    /**
+     * 限制同时借出的 Context 数量和各租户的并发编译数量，等待者按优先级、同一优先级内按租户加权公平地获得名额
+     */
+    private final PriorityAdmission active;
+    /**
+     * 按名字索引的租户，未指定租户的编译属于 {@link #defaultTenant}
+     */
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+    private final Tenant defaultTenant;
+    /**
+     * 所有 Context 共享的名字表，由第一个 Context 创建，sharedNames 关闭时为 null
+     */
+    private final AtomicReference<ConcurrentNameTable> nameTable;
+    /**
+     * 所有 Context 的文件管理器共享的文件信息缓存和类路径 jar 包，sharedFileSystems 关闭时为 null
+     */
+    private final CacheFSInfo fsInfo;
+    private final SharedArchives archives;
+    /**
+     * 按类加载器和编译参数两级分片的空闲 Context，每个分片是一个按归还时间排序的无锁双端队列：
+     * 尾部是最近归还的（借出时优先取用，缓存最热），头部是最久未用的（淘汰时优先移除）。
+     * <p>
+     * 符号表中补全过的类来自上一次编译的类加载器，所以 Context 只在同一个类加载器的编译间复用。
+     * 类加载器以弱引用（按身份）作为键，被回收后其分片中的 Context 随之关闭，不会阻止插件类加载器卸载
+     */
+    private final Cache<ClassLoader, ConcurrentMap<List<String>, Shard>> shards;
+    /**
+     * 同一个 profile 重复编译时直接使用上次解析出的分片，跳过按参数列表查找。
+     * profile 按身份弱引用，分片也只弱引用，不阻止 profile 或已失效的分片被回收
+     */
+    private final Cache<CompilerProfile, Shard> profileShards = Caffeine.newBuilder()
+            .weakKeys()
+            .weakValues()
+            .build();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final List<ScheduledFuture<?>> maintenance = new ArrayList<>(2);
+    /**
+     * OFFLOAD 和 WORKERS 模式下专用的编译线程池，CALLER 模式为 null
+     */
+    private final ExecutorService offloadExecutor;
+    /**
+     * WORKERS 模式下存活的编译线程，后台清理和收缩时连同它们独占的 Context 一起处理
+     */
+    private final Set<CompileWorker> workers = ConcurrentHashMap.newKeySet();
+    /**
+     * 执行后台任务（补充、替换、内存紧张时收缩、关闭已回收类加载器的 Context）的线程池
+     */
+    private final Executor maintenanceExecutor;
+    private volatile boolean closed;
+    private volatile boolean recordCompletions;
+    private volatile List<String> completionProfile = List.of();
+    private final Set<String> recordedCompletions = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder statReused = new LongAdder();
+    private final LongAdder statNew = new LongAdder();
+    private final LongAdder statPolluted = new LongAdder();
+    private final LongAdder statRemoved = new LongAdder();
+    private final LongAdder statRejected = new LongAdder();
+    private final LongAdder statReplenished = new LongAdder();
+    private final LongAdder statRetired = new LongAdder();
+    private final LongAdder statHeapPressure = new LongAdder();
+    private final LongAdder statRepaired = new LongAdder();
+    private final LongAdder statIsolated = new LongAdder();
+    private final LongAdder statCancelled = new LongAdder();
+    private final LongAdder statUncompleted = new LongAdder();
+    /**
+     * 最近被隔离（污染后无法修复而关闭）的 Context 的记录，只保留最近的 {@link #QUARANTINE_SIZE} 条
+     */
+    private final ConcurrentLinkedDeque<Quarantined> quarantine = new ConcurrentLinkedDeque<>();
+    /**
+     * 无法修复地污染过 Context 的源码指纹及其污染次数，达到 repeatOffenderThreshold 后在一次性的 Context 上编译；
+     * 以及其中的源文件，编译中不包含这些文件时不计算指纹
+     */
+    private final Cache<Long, AtomicInteger> offenders = Caffeine.newBuilder().maximumSize(1024).build();
+    private final Cache<URI, Boolean> offenderSources = Caffeine.newBuilder().maximumSize(1024).build();
+    /**
+     * 自适应容量的统计窗口：正在进行的任务数、窗口内的并发峰值、借用次数与未命中次数，以及 Context 的平均估计占用
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger windowPeak = new AtomicInteger();
+    private final LongAdder windowBorrows = new LongAdder();
+    private final LongAdder windowMisses = new LongAdder();
+    private volatile long footprint;
+
+    public JavacTaskPool() {
+        this(JavacTaskPoolSettings.defaults());
+    }
+
+    /**
+     * Creates the pool.
+     *
+     * @param maxPoolSize maximum number of tasks/context that will be kept in the pool.
+     */
+    public JavacTaskPool(int maxPoolSize) {
+        this(JavacTaskPoolSettings.builder().maxPoolSize(maxPoolSize).build());
+    }
+
+    public JavacTaskPool(int maxPoolSize, Duration maxAge) {
+        this(JavacTaskPoolSettings.builder().maxPoolSize(maxPoolSize).maxAge(maxAge).build());
+    }
+
+    public JavacTaskPool(JavacTaskPoolSettings settings) {
+        this(settings, Maintenance.WARMER);
+    }
+
+    /**
+     * @param maintenanceExecutor 执行后台任务的线程池，例如传入 {@code Runnable::run} 使后台任务在触发它的线程上执行完
+     */
+    JavacTaskPool(JavacTaskPoolSettings settings, Executor maintenanceExecutor) {
+        this.settings = settings;
+        this.maintenanceExecutor = maintenanceExecutor;
+        this.shards = Caffeine.newBuilder()
+                .weakKeys()
+                .executor(maintenanceExecutor)
+                .removalListener(this::onClassLoaderRemoved)
+                .build();
+        this.maxPoolSize = settings.getMaxPoolSize();
+        this.maxAge = settings.getMaxAge().toMillis();
+        this.active = new PriorityAdmission(settings.getMaxActive(), settings.getReservedInteractive(), settings.getReservedNormal());
+        this.defaultTenant = tenant(DEFAULT_TENANT);
+        this.nameTable = settings.isSharedNames() ? new AtomicReference<>() : null;
+        this.fsInfo = settings.isSharedFileSystems() ? new CacheFSInfo() : null;
+        this.archives = settings.isSharedFileSystems() ? new SharedArchives(fsInfo) : null;
+        boolean janitorEnabled = !settings.getIdleTimeout().isZero() || settings.getMaxIdle() < maxPoolSize
+                                 || settings.getMinIdle() > 0;
+        if (janitorEnabled) {
+            maintenance.add(Maintenance.schedule(this, settings.getJanitorInterval(), JavacTaskPool::maintain));
+        }
+        this.idleCapacity = maxPoolSize;
+        this.offloadExecutor = switch (settings.getExecutionMode()) {
+            case CALLER -> null;
+            case OFFLOAD -> newOffloadExecutor(settings.getOffloadThreads());
+            case WORKERS -> newWorkerPool(settings.getOffloadThreads());
+        };
+        if (settings.isAdaptive()) {
+            maintenance.add(Maintenance.schedule(this, settings.getAdaptiveWindow(), JavacTaskPool::resize));
+        }
+        if (settings.getHeapWatermark() > 0 && settings.getHeapWatermark() < 1) {
+            HeapPressureMonitor.register(this, settings.getHeapWatermark());
+        }
+    }
+
+    /**
+     * 编译线程按优先级从队列中取任务，见 {@link PrioritizedTask}
+     */
+    private static ThreadPoolExecutor newOffloadExecutor(int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "javac-task-pool-compiler-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 编译线程空闲超过 idleTimeout（未设置时为 maxAge）后退出，并关闭其独占的 Context
+     */
+    private ForkJoinPool newWorkerPool(int threads) {
+        Duration keepAlive = settings.getIdleTimeout().isZero() ? settings.getMaxAge() : settings.getIdleTimeout();
+        return new ForkJoinPool(threads, CompileWorker::new, null, true,
+                0, threads, 1, null, keepAlive.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public JavacTaskPoolSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Creates a new task as if by {@link javax.tools.JavaCompiler#getTask} and runs the provided
+     * worker with it. The task is only valid while the worker is running. The internal structures
+     * may be reused from some previous compilation.
+     *
+     * @param diagnosticListener a diagnostic listener; if {@code
+     *                           null} use the compiler's default method for reporting
+     *                           diagnostics
+     * @param options            compiler options, {@code null} means no options
+     * @param classes            names of classes to be processed by annotation
+     *                           processing, {@code null} means no class names
+     * @param compilationUnits   the compilation units to compile, {@code
+     *                           null} means no compilation units
+     * @param worker             that should be run with the task
+     * @return an object representing the compilation
+     * @throws RuntimeException         if an unrecoverable error
+     *                                  occurred in a user supplied component.  The
+     *                                  {@linkplain Throwable#getCause() cause} will be the error in
+     *                                  user code.
+     * @throws IllegalArgumentException if any of the options are invalid,
+     *                                  or if any of the given compilation units are of other kind than
+     *                                  {@linkplain JavaFileObject.Kind#SOURCE source}
+     * @throws RejectedExecutionException if the compilation units exceed
+     *                                  {@link JavacTaskPoolSettings#getMaxSourceFiles()} or
+     *                                  {@link JavacTaskPoolSettings#getMaxSourceLength()}, or if the number of
+     *                                  active tasks has reached {@link JavacTaskPoolSettings#getMaxActive()} and
+     *                                  no task finished within {@link JavacTaskPoolSettings#getAcquireTimeout()}
+     */
+    public <Z> Z getTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                         Locale locale,
+                         Charset charset,
+                         Iterable<String> options,
+                         Iterable<String> classes,
+                         Iterable<? extends JavaFileObject> compilationUnits,
+                         ClassLoader classLoader,
+                         BiFunction<Context, JavacTask, Z> worker) {
+        return execute(diagnosticListener, locale, CompilerProfile.of(options, charset), classes, compilationUnits, classLoader,
+                defaultTenant, Priority.NORMAL, null, worker);
+    }
+
+    /**
+     * 与 {@link #getTask(DiagnosticListener, Locale, Charset, Iterable, Iterable, Iterable, ClassLoader, BiFunction)} 相同，
+     * 但直接使用 profile 中已规范化的参数和字符集，不再逐次复制参数列表
+     */
+    public <Z> Z getTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                         Locale locale,
+                         CompilerProfile profile,
+                         Iterable<String> classes,
+                         Iterable<? extends JavaFileObject> compilationUnits,
+                         ClassLoader classLoader,
+                         BiFunction<Context, JavacTask, Z> worker) {
+        return execute(diagnosticListener, locale, profile, classes, compilationUnits, classLoader,
+                defaultTenant, Priority.NORMAL, null, worker);
+    }
+
+    /**
+     * 与 {@link #getTask(DiagnosticListener, Locale, CompilerProfile, Iterable, Iterable, ClassLoader, BiFunction)} 相同，
+     * 但以 tenant 的名义（为 null 时属于默认租户，见 {@link Tenant}）按 priority 排队获得名额（见 {@link Priority}），
+     * 并且可以通过 cancellation 协作式地取消任务：
+     * javac 在各阶段之间和逐个类属性分析之前检查令牌，取消后任务提前结束，Context 照常清理并归还到池中
+     *
+     * @throws CancellationException 任务在开始前或编译中被取消
+     */
+    public <Z> Z getTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                         Locale locale,
+                         CompilerProfile profile,
+                         Iterable<String> classes,
+                         Iterable<? extends JavaFileObject> compilationUnits,
+                         ClassLoader classLoader,
+                         Tenant tenant,
+                         Priority priority,
+                         CancellationToken cancellation,
+                         BiFunction<Context, JavacTask, Z> worker) {
+        return execute(diagnosticListener, locale, profile, classes, compilationUnits, classLoader,
+                tenant == null ? defaultTenant : tenant, priority, cancellation, worker);
+    }
+
+    /**
+     * @return 给定名字的租户，不存在时按默认配额创建
+     */
+    public Tenant tenant(String name) {
+        return tenants.computeIfAbsent(name, k -> new Tenant(k, TenantQuota.defaults()));
+    }
+
+    /**
+     * @return 给定名字的租户，不存在时创建，已存在时更新其配额
+     */
+    public Tenant tenant(String name, TenantQuota quota) {
+        Tenant tenant = tenant(name);
+        tenant.setQuota(quota);
+        return tenant;
+    }
+
+    /**
+     * @return 所有租户，包括未指定租户的编译所属的 {@value #DEFAULT_TENANT} 租户
+     */
+    public List<Tenant> getTenants() {
+        return List.copyOf(tenants.values());
+    }
+
+    private <Z> Z execute(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                          Locale locale,
+                          CompilerProfile profile,
+                          Iterable<String> classes,
+                          Iterable<? extends JavaFileObject> compilationUnits,
+                          ClassLoader classLoader,
+                          Tenant tenant,
+                          Priority priority,
+                          CancellationToken cancellation,
+                          BiFunction<Context, JavacTask, Z> worker) {
+        checkBudget(compilationUnits, tenant);
+        if (tenant.isOverCpuQuota()) {
+            statRejected.increment();
+            tenant.recordRejection();
+            throw new RejectedExecutionException(tenant + " exceeded its CPU time quota");
+        }
+        acquirePermit(tenant, priority);
+        int current = inFlight.incrementAndGet();
+        if (current > windowPeak.get()) {
+            windowPeak.accumulateAndGet(current, Math::max);
+        }
+        boolean offloaded = false;
+        try {
+            if (offloadExecutor == null || currentWorker() != null) {
+                return runTask(diagnosticListener, locale, profile, classes, compilationUnits, classLoader, tenant, cancellation, worker);
+            }
+            // 许可由编译线程在任务结束时释放：等待的调用者被中断后编译仍在运行，不能提前释放
+            PrioritizedTask<Z> task = new PrioritizedTask<>(priority, () -> {
+                try {
+                    return runTask(diagnosticListener, locale, profile, classes, compilationUnits, classLoader, tenant, cancellation, worker);
+                } finally {
+                    releasePermit(tenant);
+                }
+            });
+            offloadExecutor.execute(task);
+            offloaded = true;
+            return await(task);
+        } finally {
+            if (!offloaded) {
+                releasePermit(tenant);
+            }
+        }
+    }
+
+    /**
+     * 在排队和借出 Context 之前检查单次编译的规模，超出预算的请求直接拒绝，使突发流量下的堆占用可预测
+     */
+    @SneakyThrows
+    private void checkBudget(Iterable<? extends JavaFileObject> compilationUnits, Tenant tenant) {
+        int maxSourceFiles = settings.getMaxSourceFiles();
+        long maxSourceLength = settings.getMaxSourceLength();
+        if (compilationUnits == null || maxSourceFiles <= 0 && maxSourceLength <= 0) {
+            return;
+        }
+        int files = 0;
+        long length = 0;
+        for (JavaFileObject unit : compilationUnits) {
+            files++;
+            if (maxSourceLength > 0) {
+                length += unit.getCharContent(true).length();
+            }
+        }
+        if (maxSourceFiles > 0 && files > maxSourceFiles) {
+            statRejected.increment();
+            tenant.recordRejection();
+            throw new RejectedExecutionException("Too many source files: " + files + ", maxSourceFiles: " + maxSourceFiles);
+        }
+        if (maxSourceLength > 0 && length > maxSourceLength) {
+            statRejected.increment();
+            tenant.recordRejection();
+            throw new RejectedExecutionException("Source too large: " + length + ", maxSourceLength: " + maxSourceLength);
+        }
+    }
+
+    /**
+     * @return 正在排队等待名额的编译数量
+     */
+    int queued() {
+        return active.queued();
+    }
+
+    private void releasePermit(Tenant tenant) {
+        inFlight.decrementAndGet();
+        active.release(tenant);
+    }
+
+    /**
+     * 在执行编译的线程上运行任务，并把占用的 CPU 时间计入租户
+     */
+    private <Z> Z runTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                          Locale locale,
+                          CompilerProfile profile,
+                          Iterable<String> classes,
+                          Iterable<? extends JavaFileObject> compilationUnits,
+                          ClassLoader classLoader,
+                          Tenant tenant,
+                          CancellationToken cancellation,
+                          BiFunction<Context, JavacTask, Z> worker) {
+        long cpuTime = currentThreadCpuTime();
+        try {
+            return runTask(diagnosticListener, locale, profile, classes, compilationUnits, classLoader, cancellation, worker);
+        } finally {
+            tenant.recordCompletion(cpuTime < 0 ? -1 : currentThreadCpuTime() - cpuTime);
+        }
+    }
+
+    private static long currentThreadCpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    @SneakyThrows
+    private <Z> Z runTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                         Locale locale,
+                         CompilerProfile profile,
+                         Iterable<String> classes,
+                         Iterable<? extends JavaFileObject> compilationUnits,
+                         ClassLoader classLoader,
+                         CancellationToken cancellation,
+                         BiFunction<Context, JavacTask, Z> worker) {
+        if (cancellation != null && cancellation.isCancelled()) {
+            // 排队期间已被取消或超时，不再借出 Context
+            statCancelled.increment();
+            throw new CancellationException("Task cancelled before start");
+        }
+        Charset charset = profile.getCharset();
+        // 只有影响 Context 结构的参数参与分片，lint、调试信息等参数不同的编译共享同一批 Context
+        Shard shard = shard(profile, classLoader);
+        if (isRepeatOffender(compilationUnits)) {
+            // 屡次污染 Context 的源码在一次性的 Context 上编译，用完即关闭，不影响池中预热好的 Context
+            statIsolated.increment();
+            ReusableContext ctx = new ReusableContext(shard);
+            ctx.throwaway = true;
+            return runTask(ctx, diagnosticListener, locale, charset, profile.getOptions(), classes, compilationUnits, classLoader,
+                    cancellation, worker);
+        }
+        CompileWorker compileWorker = currentWorker();
+        if (compileWorker != null) {
+            shard.remember(charset);
+            return runTask(compileWorker.acquire(shard), diagnosticListener, locale, charset, profile.getOptions(),
+                    classes, compilationUnits, classLoader, cancellation, worker);
+        }
+        shard.touch(charset);
+        ReusableContext ctx = acquire(shard);
+        replenishIfNeeded(shard);
+        return runTask(ctx, diagnosticListener, locale, charset, profile.getOptions(), classes, compilationUnits, classLoader,
+                cancellation, worker);
+    }
+
+    /**
+     * 在给定的 Context 上运行任务，结束后清理 Context 并归还到池中（或在其被污染时丢弃）。
+     * 被取消的任务与正常结束的任务一样清理并归还 Context，之后抛出 {@link CancellationException}
+     */
+    @SneakyThrows
+    private <Z> Z runTask(ReusableContext ctx,
+                          DiagnosticListener<? super JavaFileObject> diagnosticListener,
+                          Locale locale,
+                          Charset charset,
+                          List<String> opts,
+                          Iterable<String> classes,
+                          Iterable<? extends JavaFileObject> compilationUnits,
+                          ClassLoader classLoader,
+                          CancellationToken cancellation,
+                          BiFunction<Context, JavacTask, Z> worker) {
+        ctx.useCount++;
+        ctx.cancellation = cancellation;
+
+        ClientCodeWrapper ccw = ClientCodeWrapper.instance(ctx);
+        if (diagnosticListener != null) {
+            ctx.put(DiagnosticListener.class, ccw.wrap(diagnosticListener));
+        }
+        MemoryFileManager memoryFileManager = ctx.get(MemoryFileManager.class);
+        if (memoryFileManager == null) {
+            ctx.put(Locale.class, locale);
+            if (fsInfo != null) {
+                ctx.put(FSInfo.class, fsInfo);
+            } else {
+                CacheFSInfo.preRegister(ctx);
+            }
+            memoryFileManager = new MemoryFileManager(new JavacFileManager(ctx, false, charset), classLoader, archives);
+            ctx.put(MemoryFileManager.class, memoryFileManager);
+        } else {
+            memoryFileManager.setClassLoader(classLoader);
+            memoryFileManager.setContext(ctx);
+            memoryFileManager.setCharset(charset);
+        }
+        ctx.put(Log.errKey, new PrintWriter(Writer.nullWriter()));
+        JavacTaskImpl task =
+                (JavacTaskImpl) systemProvider.getTask(null, memoryFileManager, null,
+                        opts, classes, compilationUnits, ctx);
+        // 参数（类路径、multi-release）已在创建任务时应用到文件管理器
+        memoryFileManager.attachArchives();
+        if (ctx.useCount > 1 && !opts.equals(ctx.taskOptions)) {
+            // 复用的 Context 上一次任务的 lint、调试信息等参数与本次不同，按本次的参数重置相关组件
+            TaskOptions.reset(ctx);
+        }
+        ctx.taskOptions = opts;
+
+        task.addTaskListener(ctx);
+
+        Throwable ex = null;
+        Z result = null;
+        try {
+            Types types = Types.instance(ctx);
+            if (!MODIFY_BY_AGENT) {
+                CompileUtil.clear(types);
+            }
+            result = worker.apply(ctx, task);
+        } catch (Throwable e) {
+            // 在任务监听器中抛出的取消信号会被 javac 包装，取消发生在类与类之间，Context 的状态仍然完整
+            if (!isCancellation(e)) {
+                ex = e;
+            }
+        } finally {
+            //additional cleanup: purge the compiled package:
+            Symtab symtab = Symtab.instance(ctx);
+            Names names = Names.instance(ctx);
+            Symbol.ModuleSymbol module = module(symtab);
+            Symbol.Completer completer = ClassFinder.instance(ctx).getCompleter();
+            List<MemoryOutputJavaFileObject> outputs = memoryFileManager.getOutputs();
+            Map<Symbol.PackageSymbol, List<Symbol.ClassSymbol>> definedClasses = null;
+            for (MemoryOutputJavaFileObject output : outputs) {
+                String binaryName = output.getBinaryName();
+                Symbol.ClassSymbol aClass = symtab.getClass(module, names.fromString(binaryName));
+                if (aClass != null) {
+                    for (Symbol.ClassSymbol value : CompileUtil.remove(symtab, aClass.flatName()).values()) {
+                        value.packge().members_field = null;
+                        value.packge().completer = completer;
+                    }
+                } else {
+                    Symbol.PackageSymbol aPackage = symtab.getPackage(module, names.fromString(binaryName.substring(0, binaryName.lastIndexOf('.'))));
+                    if (aPackage != null) {
+                        // 局部类、匿名类不在符号表中，清理本次编译在其所在包中定义的类，只在第一次用到时建立索引
+                        if (definedClasses == null) {
+                            definedClasses = indexDefinedClasses(ctx.roots);
+                        }
+                        for (Symbol.ClassSymbol clazz : definedClasses.getOrDefault(aPackage, List.of())) {
+                            for (Symbol.ClassSymbol value : CompileUtil.remove(symtab, clazz.flatName()).values()) {
+                                value.packge().members_field = null;
+                                value.packge().completer = completer;
+                            }
+                        }
+                        definedClasses.remove(aPackage);
+                        aPackage.members_field = null;
+                        aPackage.completer = completer;
+                    }
+                }
+            }
+            if (!MODIFY_BY_AGENT) {
+                // 移除本次编译在类的成员作用域上注册的监听器，只涉及本次编译用到的类型，不再遍历整个符号表
+                CompileUtil.clearListeners(Types.instance(ctx));
+            }
+        }
+
+        //not returning the context to the pool if task crashes with an exception
+        //the task/context may be in a broken state
+        ctx.clear();
+        boolean cancelled = ctx.cancelled;
+        ctx.cancellation = null;
+        ctx.cancelled = false;
+        if (cancelled) {
+            statCancelled.increment();
+        }
+        if (ctx.polluted || ex != null) {
+            statPolluted.increment();
+            quarantine(compilationUnits, ex);
+            memoryFileManager.doClose();// close the file manager
+        } else if (ctx.throwaway) {
+            memoryFileManager.doClose();
+        } else {
+            if (ctx.repaired) {
+                // 已原地修复，Context 可以继续复用，不计入污染次数
+                statRepaired.increment();
+            }
+            CLEANUP.invokeExact(task);
+            // 空闲的 Context 不持有类加载器，使其可以被回收
+            memoryFileManager.setClassLoader(null);
+            if (recordCompletions) {
+                recordCompletions(ctx);
+            }
+            uncompleteColdClasses(ctx);
+            CompileWorker compileWorker = currentWorker();
+            if (compileWorker != null) {
+                compileWorker.release(ctx);
+            } else {
+                release(ctx);
+            }
+        }
+        if (ex != null) {
+            throw ex;
+        }
+        if (cancelled) {
+            throw new CancellationException("Task cancelled");
+        }
+        return result;
+    }
+
+    /**
+     * @return 本次编译的源码中定义的类（包括成员类、局部类和匿名类），按所在的包索引
+     */
+    private static Map<Symbol.PackageSymbol, List<Symbol.ClassSymbol>> indexDefinedClasses(Collection<CompilationUnitTree> roots) {
+        Map<Symbol.PackageSymbol, List<Symbol.ClassSymbol>> index = new HashMap<>();
+        com.sun.tools.javac.tree.TreeScanner scanner = new com.sun.tools.javac.tree.TreeScanner() {
+            @Override
+            public void visitClassDef(JCClassDecl tree) {
+                if (tree.sym != null) {
+                    index.computeIfAbsent(tree.sym.packge(), k -> new ArrayList<>()).add(tree.sym);
+                }
+                super.visitClassDef(tree);
+            }
+        };
+        for (CompilationUnitTree root : roots) {
+            scanner.scan((JCTree) root);
+        }
+        return index;
+    }
+
+    private static boolean isCancellation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof Cancelled) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //where:
+    /**
+     * 记录被隔离的 Context：无法修复的污染或编译中抛出异常时，Context 的状态不再可信，只能关闭
+     */
+    private void quarantine(Iterable<? extends JavaFileObject> compilationUnits, Throwable ex) {
+        recordOffender(compilationUnits);
+        List<String> sources = new ArrayList<>();
+        for (JavaFileObject unit : compilationUnits) {
+            sources.add(unit.getName());
+        }
+        quarantine.offerLast(new Quarantined(System.currentTimeMillis(),
+                ex != null ? String.valueOf(ex) : "redefined core class", sources));
+        while (quarantine.size() > QUARANTINE_SIZE) {
+            quarantine.pollFirst();
+        }
+    }
+
+    private void recordOffender(Iterable<? extends JavaFileObject> compilationUnits) {
+        if (settings.getRepeatOffenderThreshold() > 0) {
+            for (JavaFileObject unit : compilationUnits) {
+                offenderSources.put(unit.toUri(), Boolean.TRUE);
+            }
+            offenders.get(fingerprint(compilationUnits), k -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    private boolean isRepeatOffender(Iterable<? extends JavaFileObject> compilationUnits) {
+        int threshold = settings.getRepeatOffenderThreshold();
+        // 没有污染记录，或者本次编译不包含污染过 Context 的源文件时不计算指纹，其他编译不必读取和哈希源码
+        if (threshold <= 0 || offenderSources.estimatedSize() == 0 || !containsOffenderSource(compilationUnits)) {
+            return false;
+        }
+        AtomicInteger count = offenders.getIfPresent(fingerprint(compilationUnits));
+        return count != null && count.get() >= threshold;
+    }
+
+    private boolean containsOffenderSource(Iterable<? extends JavaFileObject> compilationUnits) {
+        for (JavaFileObject unit : compilationUnits) {
+            if (offenderSources.getIfPresent(unit.toUri()) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按文件名和内容计算一次编译的源码指纹
+     */
+    @SneakyThrows
+    private static long fingerprint(Iterable<? extends JavaFileObject> compilationUnits) {
+        long hash = 1;
+        for (JavaFileObject unit : compilationUnits) {
+            hash = 31 * hash + unit.toUri().hashCode();
+            hash = 31 * hash + unit.getCharContent(true).toString().hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * 等待卸载到编译线程上的任务完成。Future.get 基于 LockSupport.park，虚拟线程等待时会让出载体线程；
+     * 等待被中断时不取消任务，让编译正常结束并把 Context 归还到池中，占用的许可也由任务结束时释放
+     */
+    @SneakyThrows
+    private static <Z> Z await(Future<Z> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 当前线程是本池的编译线程时返回它，否则返回 null
+     */
+    private CompileWorker currentWorker() {
+        return Thread.currentThread() instanceof CompileWorker worker && worker.getPool() == offloadExecutor ? worker : null;
+    }
+
+    private void acquirePermit(Tenant tenant, Priority priority) {
+        boolean acquired;
+        long start = System.nanoTime();
+        try {
+            acquired = active.acquire(tenant, priority, settings.getAcquireTimeout().toNanos());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            statRejected.increment();
+            tenant.recordRejection();
+            throw new RejectedExecutionException("Interrupted while waiting for a compiler context", e);
+        } finally {
+            tenant.recordWait(System.nanoTime() - start);
+        }
+        if (!acquired) {
+            statRejected.increment();
+            tenant.recordRejection();
+            throw new RejectedExecutionException("Too many concurrent compilations, maxActive: " + settings.getMaxActive()
+                                                 + ", " + tenant + " maxActive: " + tenant.getQuota().getMaxActive());
+        }
+    }
+
+    /**
+     * 同一个 profile 在同一个类加载器下重复编译时直接使用上次解析出的分片
+     */
+    Shard shard(CompilerProfile profile, ClassLoader classLoader) {
+        Shard shard = profileShards.getIfPresent(profile);
+        if (shard != null && shard.isAlive() && shard.classLoader.get() == (classLoader == null ? NO_CLASS_LOADER : classLoader)) {
+            return shard;
+        }
+        shard = shard(profile.getContextOptions(), classLoader);
+        profileShards.put(profile, shard);
+        return shard;
+    }
+
+    private Shard shard(List<String> options, ClassLoader classLoader) {
+        ConcurrentMap<List<String>, Shard> partition =
+                shards.get(classLoader == null ? NO_CLASS_LOADER : classLoader, k -> new ConcurrentHashMap<>());
+        Shard shard = partition.get(options);
+        return shard != null ? shard : partition.computeIfAbsent(options, o -> new Shard(o, classLoader));
+    }
+
+    /**
+     * 所有分片以及所有编译线程独占的空闲队列的快照
+     */
+    private List<IdleQueue> idleQueues() {
+        List<IdleQueue> result = new ArrayList<>(shards());
+        for (CompileWorker worker : workers) {
+            result.add(worker.owned);
+        }
+        return result;
+    }
+
+    /**
+     * 所有类加载器下的所有分片的快照
+     */
+    private List<Shard> shards() {
+        List<Shard> result = new ArrayList<>();
+        for (ConcurrentMap<List<String>, Shard> partition : shards.asMap().values()) {
+            result.addAll(partition.values());
+        }
+        return result;
+    }
+
+    /**
+     * 关闭并移除类加载器的所有分片，与类加载器被回收时相同，之后该类加载器的编译使用新的分片
+     */
+    void invalidate(ClassLoader classLoader) {
+        shards.invalidate(classLoader == null ? NO_CLASS_LOADER : classLoader);
+    }
+
+    /**
+     * 类加载器被回收或被移除后，关闭其分片中的所有空闲 Context，之后归还到这些分片的 Context 也直接关闭
+     */
+    private void onClassLoaderRemoved(ClassLoader classLoader, ConcurrentMap<List<String>, Shard> partition, RemovalCause cause) {
+        if (partition == null) {
+            return;
+        }
+        for (Shard shard : partition.values()) {
+            shard.removed = true;
+            shard.drain();
+        }
+    }
+
+    private ReusableContext acquire(Shard shard) {
+        long currentTime = System.currentTimeMillis();
+        ReusableContext ctx;
+        windowBorrows.increment();
+        while ((ctx = shard.pollNewest()) != null) {
+            if (!isExpired(ctx, currentTime)) {
+                statReused.increment();
+                return ctx;
+            }
+            discard(ctx);
+        }
+        return newContext(shard);
+    }
+
+    /**
+     * 分片中没有可用的 Context 时创建新的。开启 {@link JavacTaskPoolSettings#isTemplates() 模板} 时同时在后台预热一个 Context
+     * 放入分片，之后的扩容借用预热好的 Context，请求线程不必从头创建 Context 并补全 java.base
+     */
+    private ReusableContext newContext(Shard shard) {
+        windowMisses.increment();
+        if (settings.isTemplates()) {
+            replenish(shard, 1);
+        }
+        statNew.increment();
+        return new ReusableContext(shard);
+    }
+
+    private void release(ReusableContext ctx) {
+        long currentTime = System.currentTimeMillis();
+        if (ctx.timeStamp == 0) {
+            ctx.timeStamp = currentTime;
+        }
+        Shard shard = ctx.shard;
+        if (closed || !shard.isAlive() || isExpired(ctx, currentTime)) {
+            discard(ctx);
+            return;
+        }
+        if (shouldRetire(ctx)) {
+            discard(ctx);
+            statRetired.increment();
+            replace(shard);
+            return;
+        }
+        if (settings.isAdaptive()) {
+            long sample = estimateFootprint(ctx);
+            footprint = footprint == 0 ? sample : (footprint * 7 + sample) / 8;
+        }
+        ctx.lastUsed = currentTime;
+        shard.offerNewest(ctx);
+        if (!shard.isAlive()) {
+            // 与分片的移除并发时由这里关闭，避免遗漏
+            shard.drain();
+            return;
+        }
+        int capacity = idleCapacity;
+        if (idleCount.get() > capacity) {
+            evictLeastRecentlyUsed(capacity, 0);
+        }
+    }
+
+    /**
+     * 长期复用的 Context 会不断累积从类路径补全的 ClassSymbol 和 Names 中的名字，
+     * 使用次数、符号表中的类数量或名字表的估计大小超过上限时退役，使单个 Context 的内存保持有界
+     */
+    private boolean shouldRetire(ReusableContext ctx) {
+        int maxUses = settings.getMaxUses();
+        if (maxUses > 0 && ctx.useCount >= maxUses) {
+            return true;
+        }
+        int maxSymtabClasses = settings.getMaxSymtabClasses();
+        if (maxSymtabClasses > 0 && CompileUtil.size(Symtab.instance(ctx)) > maxSymtabClasses) {
+            return true;
+        }
+        long maxNameTableBytes = settings.getMaxNameTableBytes();
+        return maxNameTableBytes > 0 && CompileUtil.estimateSize(Names.instance(ctx).table) > maxNameTableBytes;
+    }
+
+    /**
+     * Context 中从类路径补全的顶层类超过 maxClasspathClasses 时，把最久没有再补全过的类还原为未补全状态，
+     * 释放其成员，使长期复用的 Context 只保留最近用到的类路径子集，而不必整个退役。
+     * 还原的类仍在符号表中，下次用到时重新从 class 文件补全，并成为最近使用的类
+     */
+    private void uncompleteColdClasses(ReusableContext ctx) {
+        int maxClasspathClasses = settings.getMaxClasspathClasses();
+        if (maxClasspathClasses <= 0 || ctx.classpathClasses.size() <= maxClasspathClasses) {
+            return;
+        }
+        Symtab symtab = Symtab.instance(ctx);
+        Symbol.Completer completer = ClassFinder.instance(ctx).getCompleter();
+        Iterator<Symbol.ClassSymbol> iterator = ctx.classpathClasses.iterator();
+        while (ctx.classpathClasses.size() > maxClasspathClasses) {
+            Symbol.ClassSymbol clazz = iterator.next();
+            iterator.remove();
+            // 已从符号表中移除（被同名的源码覆盖后清理）或补全失败的类不再处理
+            if (clazz.kind == Kinds.Kind.TYP && clazz.completer == Symbol.Completer.NULL_COMPLETER
+                && symtab.getClass(clazz.packge().modle, clazz.flatname) == clazz) {
+                CompileUtil.uncomplete(clazz, completer);
+                statUncompleted.increment();
+            }
+        }
+    }
+
+    /**
+     * 估计 Context 的内存占用：名字表的大小加上符号表中每个类的平均开销，只用于自适应容量的粗略计算
+     */
+    private static long estimateFootprint(ReusableContext ctx) {
+        return CompileUtil.estimateSize(Names.instance(ctx).table)
+               + (long) CompileUtil.size(Symtab.instance(ctx)) * ESTIMATED_BYTES_PER_CLASS;
+    }
+
+    /**
+     * 自适应模式下每个统计窗口结束时调整空闲容量：
+     * 以窗口内的并发借用峰值为目标，复用未命中率偏高时扩容，无流量时逐步缩容，
+     * 同时保证 容量 × 单个 Context 的估计占用 不超过堆的 adaptiveHeapFraction，最终限制在 [minPoolSize, maxPoolSize]
+     */
+    void resize() {
+        int peak = windowPeak.getAndSet(inFlight.get());
+        long borrows = windowBorrows.sumThenReset();
+        long misses = windowMisses.sumThenReset();
+        int capacity = idleCapacity;
+        int target;
+        if (borrows == 0) {
+            target = capacity / 2;
+        } else if (misses * 10 > borrows) {
+            target = Math.max(peak, capacity + Math.max(1, capacity / 2));
+        } else {
+            // 缩容取当前容量与峰值的中间值，避免在流量波动时反复抖动
+            target = peak >= capacity ? peak : (capacity + peak) / 2;
+        }
+        int upper = maxPoolSize;
+        long contextFootprint = footprint;
+        if (contextFootprint > 0) {
+            long budget = (long) (Runtime.getRuntime().maxMemory() * settings.getAdaptiveHeapFraction());
+            upper = (int) Math.min(upper, Math.max(1, budget / contextFootprint));
+        }
+        int resized = Math.max(settings.getMinPoolSize(), Math.min(upper, target));
+        idleCapacity = resized;
+        if (idleCount.get() > resized) {
+            evictLeastRecentlyUsed(resized, 0);
+        }
+    }
+
+    /**
+     * 为退役的 Context 在后台补充一个预热好的替代者，使退役对请求线程透明
+     */
+    private void replace(Shard shard) {
+        if (!closed && shard.isHot(settings.getIdleTimeout().toMillis())) {
+            Maintenance.execute(this, pool -> {
+                pool.warmUp(shard);
+                pool.statReplenished.increment();
+            });
+        }
+    }
+
+    private boolean isExpired(ReusableContext ctx, long currentTime) {
+        return ctx.timeStamp != 0 && currentTime - ctx.timeStamp > maxAge;
+    }
+
+    private void discard(ReusableContext ctx) {
+        ctx.get(MemoryFileManager.class).doClose();// close the file manager
+        statRemoved.increment();
+    }
+
+    /**
+     * 每个分片的队头就是该分片最久未用的 Context，只需比较各分片队头即可找到全局最久未用者，
+     * 开销只与参数组合的数量有关，与池中 Context 的数量无关
+     *
+     * @param target       淘汰到空闲总数不超过该值为止
+     * @param keepPerShard 空闲数不超过该值的分片不参与淘汰，编译线程独占的 Context 不保留
+     */
+    private void evictLeastRecentlyUsed(int target, int keepPerShard) {
+        while (idleCount.get() > target) {
+            IdleQueue victim = null;
+            long oldest = Long.MAX_VALUE;
+            for (IdleQueue queue : idleQueues()) {
+                ReusableContext head = queue.idle.peekFirst();
+                int keep = queue instanceof Shard ? keepPerShard : 0;
+                if (head != null && head.lastUsed < oldest && queue.size.get() > keep) {
+                    oldest = head.lastUsed;
+                    victim = queue;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            ReusableContext toRemove = victim.pollOldest();
+            if (toRemove != null) {
+                discard(toRemove);
+            }
+        }
+    }
+
+    void maintain() {
+        // 处理已被回收的类加载器，关闭其分片中的 Context
+        shards.cleanUp();
+        evictIdle();
+        for (Shard shard : shards()) {
+            replenishIfNeeded(shard);
+        }
+    }
+
+    /**
+     * 热点分片（最近 idleTimeout 内被借用过）的空闲数低于 minIdle 时，在后台新建并预热 Context 补足，
+     * 使稳态下请求线程不必承担冷 Context 的创建和首次补全 java.base 的开销
+     */
+    private void replenishIfNeeded(Shard shard) {
+        int minIdle = settings.getMinIdle();
+        if (minIdle > 0 && shard.isHot(settings.getIdleTimeout().toMillis())) {
+            replenish(shard, minIdle);
+        }
+    }
+
+    /**
+     * 在后台新建并预热 Context 放入分片，直到分片的空闲数达到 target。预热好的 Context 与归还的一样计入空闲容量，
+     * 超出容量时按最久未用淘汰；同一分片同时只有一个补充任务
+     */
+    private void replenish(Shard shard, int target) {
+        if (closed || shard.size.get() >= target || !shard.replenishing.compareAndSet(false, true)) {
+            return;
+        }
+        Maintenance.execute(this, pool -> {
+            try {
+                // 预热失败的 Context 会被丢弃，最多尝试 target 次，避免无限重试
+                for (int i = shard.size.get(); i < target && !pool.closed; i++) {
+                    pool.warmUp(shard);
+                    pool.statReplenished.increment();
+                }
+            } finally {
+                shard.replenishing.set(false);
+            }
+        });
+    }
+
+    /**
+     * 新建一个 Context，用一次有代表性的编译完成 java.lang、java.util 等常用类的补全，然后放入池中
+     */
+    private void warmUp(Shard shard) {
+        ClassLoader classLoader = shard.classLoader.get();
+        if (classLoader == null) {
+            return;
+        }
+        warmUp(new ReusableContext(shard), shard.charset, classLoader == NO_CLASS_LOADER ? null : classLoader);
+    }
+
+    @SneakyThrows
+    private void warmUp(ReusableContext context, Charset charset, ClassLoader classLoader) {
+        if (classLoader == null) {
+            classLoader = JavacTaskPool.class.getClassLoader();
+        }
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject(WARM_UP_CLASS + ".java", WARM_UP_SOURCE));
+        List<String> profile = completionProfile;
+        statNew.increment();
+        runTask(context, d -> {}, null, charset, context.shard.options, null, units, classLoader, null,
+                (ctx, task) -> {
+                    boolean success = task.call();
+                    preComplete(ctx, profile);
+                    return success;
+                });
+    }
+
+    /**
+     * 在流量到来之前创建 count 个 Context，每个都执行一次有代表性的编译，
+     * 并预先补全 {@link #loadCompletionProfile(Path)} 加载的类，然后放入池中
+     */
+    public void warmUp(Iterable<String> options, Charset charset, ClassLoader classLoader, int count) {
+        warmUp(CompilerProfile.of(options, charset), classLoader, count);
+    }
+
+    public void warmUp(CompilerProfile profile, ClassLoader classLoader, int count) {
+        Shard shard = shard(profile, classLoader);
+        shard.remember(profile.getCharset());
+        for (int i = 0; i < count && !closed; i++) {
+            warmUp(new ReusableContext(shard), profile.getCharset(), classLoader);
+        }
+    }
+
+    /**
+     * 开启或关闭补全记录。开启后，每次编译结束时记录 Context 中从 class 文件补全过的类（JDK 和类路径），
+     * 只有符号表中的类数量发生变化时才会扫描，稳态下几乎没有开销
+     */
+    public void recordCompletions(boolean enabled) {
+        this.recordCompletions = enabled;
+    }
+
+    /**
+     * @return 目前为止记录到的补全过的类（flat name），已排序
+     */
+    public List<String> getRecordedCompletions() {
+        List<String> list = new ArrayList<>(recordedCompletions);
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * 把记录到的补全过的类保存到文件，每行一个类名，供下次启动时 {@link #loadCompletionProfile(Path)} 使用
+     */
+    @SneakyThrows
+    public void saveCompletionProfile(Path path) {
+        Files.write(path, getRecordedCompletions(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 加载补全记录，之后 {@link #warmUp} 以及后台补充的 Context 都会预先补全其中的类
+     */
+    @SneakyThrows
+    public void loadCompletionProfile(Path path) {
+        List<String> profile = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                profile.add(line);
+            }
+        }
+        this.completionProfile = List.copyOf(profile);
+    }
+
+    private void recordCompletions(ReusableContext ctx) {
+        Symtab symtab = Symtab.instance(ctx);
+        int classCount = CompileUtil.size(symtab);
+        if (classCount == ctx.recordedClassCount) {
+            return;
+        }
+        ctx.recordedClassCount = classCount;
+        for (Symbol.ClassSymbol clazz : symtab.getAllClasses()) {
+            if (clazz.completer == Symbol.Completer.NULL_COMPLETER && clazz.classfile != null
+                && clazz.classfile.getKind() == JavaFileObject.Kind.CLASS && !(clazz.classfile instanceof MemoryOutputJavaFileObject)) {
+                recordedCompletions.add(clazz.flatName().toString());
+            }
+        }
+    }
+
+    private static void preComplete(Context ctx, List<String> profile) {
+        if (profile.isEmpty()) {
+            return;
+        }
+        Symtab symtab = Symtab.instance(ctx);
+        Names names = Names.instance(ctx);
+        ClassFinder finder = ClassFinder.instance(ctx);
+        Symbol.ModuleSymbol module = module(symtab);
+        for (String className : profile) {
+            Name flatName = names.fromString(className);
+            try {
+                finder.loadClass(module, flatName);
+            } catch (Symbol.CompletionFailure e) {
+                // 类已不存在，移除补全失败留下的符号，避免影响后续的编译
+                CompileUtil.remove(symtab, flatName);
+            }
+        }
+    }
+
+    private static Symbol.ModuleSymbol module(Symtab symtab) {
+        return symtab.java_base == symtab.noModule ? symtab.noModule : symtab.unnamedModule;
+    }
+
+    /**
+     * 后台清理：关闭空闲超过 idleTimeout 的 Context（每个分片至少保留 minIdle 个，编译线程独占的不保留），
+     * 再把空闲总数压到 maxIdle 以内，使突发流量过后的内存能够及时释放，而不必等到下一次编译
+     */
+    void evictIdle() {
+        evictIdle(System.currentTimeMillis());
+    }
+
+    /**
+     * @param currentTime 判断空闲和过期所用的当前时间
+     */
+    void evictIdle(long currentTime) {
+        long idleTimeout = settings.getIdleTimeout().toMillis();
+        int minIdle = settings.getMinIdle();
+        if (idleTimeout > 0) {
+            for (IdleQueue queue : idleQueues()) {
+                int keep = queue instanceof Shard ? minIdle : 0;
+                ReusableContext head;
+                while (queue.size.get() > keep && (head = queue.idle.peekFirst()) != null
+                       && (currentTime - head.lastUsed > idleTimeout || isExpired(head, currentTime))) {
+                    ReusableContext toRemove = queue.pollOldest();
+                    if (toRemove == null) {
+                        break;
+                    }
+                    if (toRemove != head && currentTime - toRemove.lastUsed <= idleTimeout && !isExpired(toRemove, currentTime)) {
+                        // 队头已被并发借出，取到的是较新的 Context，放回原位
+                        queue.offerOldest(toRemove);
+                        break;
+                    }
+                    discard(toRemove);
+                }
+            }
+        }
+        evictLeastRecentlyUsed(settings.getMaxIdle(), minIdle);
+    }
+
+    /**
+     * GC 后老年代占用超过水位线时，在后台关闭空闲的 Context（每种编译参数保留 minIdle 个，避免之后全部冷启动）
+     * 并清理 {@link MemoryFileManager} 的静态缓存，主动释放内存，而不是等软引用被 GC 逐步回收
+     */
+    void onHeapPressure(double usage) {
+        if (closed || usage < settings.getHeapWatermark()) {
+            return;
+        }
+        Maintenance.execute(this, JavacTaskPool::shrink);
+    }
+
+    void shrink() {
+        evictLeastRecentlyUsed(0, settings.getMinIdle());
+        MemoryFileManager.trimCaches();
+        if (fsInfo != null) {
+            fsInfo.clearCache();
+        }
+        statHeapPressure.increment();
+    }
+
+    /**
+     * 停止后台任务并关闭所有空闲的 Context，之后归还的 Context 也会直接关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (ScheduledFuture<?> future : maintenance) {
+            future.cancel(false);
+        }
+        if (offloadExecutor != null) {
+            offloadExecutor.shutdown();
+        }
+        for (Shard shard : shards()) {
+            shard.drain();
+        }
+        for (CompileWorker worker : workers) {
+            worker.owned.drain();
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(idleCount.get(), idleCapacity, inFlight.get(), footprint,
+                statReused.sum(), statNew.sum(), statPolluted.sum(), statRemoved.sum(), statRejected.sum(),
+                statReplenished.sum(), statRetired.sum(), statHeapPressure.sum(),
+                statRepaired.sum(), statIsolated.sum(), statCancelled.sum(), sharedNameBytes(),
+                archives == null ? 0 : archives.size(), statUncompleted.sum());
+    }
+
+    private long sharedNameBytes() {
+        ConcurrentNameTable table = nameTable == null ? null : nameTable.get();
+        return table == null ? 0 : table.bytes();
+    }
+
+    /**
+     * @return 最近被隔离的 Context 的记录，按时间先后排序
+     */
+    public List<Quarantined> getQuarantine() {
+        return List.copyOf(quarantine);
+    }
+
+    public void printStatistics(PrintStream out) {
+        out.println(idleCount.get() + "/" + idleCapacity + " idle Contexts");
+        out.println(statReused.sum() + " reused Contexts");
+        out.println(statNew.sum() + " newly created Contexts");
+        out.println(statPolluted.sum() + " polluted Contexts");
+        out.println(statRemoved.sum() + " removed Contexts");
+        out.println(statRejected.sum() + " rejected tasks");
+        out.println(statReplenished.sum() + " replenished Contexts");
+        out.println(statRetired.sum() + " retired Contexts");
+        out.println(statHeapPressure.sum() + " heap pressure shrinks");
+        out.println(statRepaired.sum() + " repaired Contexts");
+        out.println(statIsolated.sum() + " isolated tasks");
+        out.println(statCancelled.sum() + " cancelled tasks");
+        out.println(sharedNameBytes() + " bytes in the shared name table");
+        out.println((archives == null ? 0 : archives.size()) + " shared classpath archives");
+        out.println(statUncompleted.sum() + " cold classpath classes uncompleted");
+    }
+
+    /**
+     * 池的统计快照
+     *
+     * @param idle             当前空闲的 Context 数量
+     * @param capacity         当前的空闲容量，自适应模式下由池根据负载调整
+     * @param active           正在进行的任务数量
+     * @param footprint        Context 的平均估计占用（字节），仅在自适应模式下统计
+     * @param reused           复用 Context 的次数
+     * @param created          新建 Context 的次数
+     * @param polluted         因无法修复的污染或异常隔离并关闭的 Context 数量
+     * @param removed          因过期、空闲或容量淘汰的 Context 数量
+     * @param rejected         因并发上限被拒绝的任务数量
+     * @param replenished      后台补充并预热的 Context 数量
+     * @param retired          因使用次数或符号表膨胀而退役的 Context 数量
+     * @param heapPressure     因堆内存压力收缩池的次数
+     * @param repaired         污染后原地修复并继续复用的 Context 数量
+     * @param isolated         因源码屡次污染 Context 而在一次性 Context 上编译的任务数量
+     * @param cancelled        被 {@link CancellationToken} 取消或超时的任务数量
+     * @param sharedNameBytes  共享名字表中名字的字节数，未开启 sharedNames 时为 0
+     * @param sharedArchives   所有 Context 的文件管理器共享的类路径 jar 包数量
+     * @param uncompleted      因超过 maxClasspathClasses 被还原为未补全状态的类路径中的类的数量
+     */
+    public record Statistics(int idle, int capacity, int active, long footprint,
+                             long reused, long created, long polluted, long removed, long rejected,
+                             long replenished, long retired, long heapPressure,
+                             long repaired, long isolated, long cancelled,
+                             long sharedNameBytes, int sharedArchives, long uncompleted) {
+    }
+
+    /**
+     * 一次隔离的记录
+     *
+     * @param time    隔离的时间
+     * @param reason  隔离的原因：重定义了核心类，或者编译中抛出的异常
+     * @param sources 引起隔离的源文件
+     */
+    public record Quarantined(long time, String reason, List<String> sources) {
+    }
+
+    /**
+     * 空闲 Context 的无锁队列，按归还顺序排列，尾部是最近归还的，头部是最久未用的。
+     * 分片和 WORKERS 模式下的编译线程各有一个，出入队同时计入池的空闲总数，后台清理、容量淘汰和内存紧张时的收缩都能看到其中的 Context
+     */
+    class IdleQueue {
+        final ConcurrentLinkedDeque<ReusableContext> idle = new ConcurrentLinkedDeque<>();
+        final AtomicInteger size = new AtomicInteger();
+
+        ReusableContext pollNewest() {
+            return counted(idle.pollLast());
+        }
+
+        ReusableContext pollOldest() {
+            return counted(idle.pollFirst());
+        }
+
+        void offerNewest(ReusableContext ctx) {
+            idle.offerLast(ctx);
+            size.incrementAndGet();
+            idleCount.incrementAndGet();
+        }
+
+        void offerOldest(ReusableContext ctx) {
+            idle.offerFirst(ctx);
+            size.incrementAndGet();
+            idleCount.incrementAndGet();
+        }
+
+        /**
+         * 取出指定的 Context，已被其他线程（后台清理）取出时返回 false
+         */
+        boolean remove(ReusableContext ctx) {
+            if (idle.removeLastOccurrence(ctx)) {
+                counted(ctx);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 关闭队列中所有的 Context
+         */
+        void drain() {
+            ReusableContext ctx;
+            while ((ctx = pollOldest()) != null) {
+                discard(ctx);
+            }
+        }
 
-    static {
-        JFields.setValue(Source.Feature.MODULES, "maxLevel", Source.JDK1_2);
+        private ReusableContext counted(ReusableContext ctx) {
+            if (ctx != null) {
+                size.decrementAndGet();
+                idleCount.decrementAndGet();
+            }
+            return ctx;
+        }
     }
 
-    private final long maxAge;
-    private final int maxPoolSize;
-    private final Map<List<String>, Queue<ReusableContext>> options2Contexts = new HashMap<>();
+    final class Shard extends IdleQueue {
+        final List<String> options;
+        final AtomicBoolean replenishing = new AtomicBoolean();
+        /**
+         * 分片所属的类加载器，只弱引用，为 null 的类加载器用 {@link #NO_CLASS_LOADER} 代替
+         */
+        final WeakReference<ClassLoader> classLoader;
+        /**
+         * 最近一次借用的时间与字符集，后台补充 Context 时沿用
+         */
+        volatile long lastBorrowed;
+        volatile Charset charset;
+        /**
+         * 分片已从池中移除
+         */
+        volatile boolean removed;
 
-    private int statReused = 0;
-    private int statNew = 0;
-    private int statPolluted = 0;
-    private int statRemoved = 0;
+        Shard(List<String> options, ClassLoader classLoader) {
+            this.options = options;
+            this.classLoader = new WeakReference<>(classLoader == null ? NO_CLASS_LOADER : classLoader);
+        }
 
-    public JavacTaskPool() {
-        this(Runtime.getRuntime().availableProcessors() * 2, Duration.ofDays(1));
-    }
+        void touch(Charset charset) {
+            lastBorrowed = System.currentTimeMillis();
+            remember(charset);
+        }
 
-    /**
-     * Creates the pool.
-     *
-     * @param maxPoolSize maximum number of tasks/context that will be kept in the pool.
-     */
-    public JavacTaskPool(int maxPoolSize) {
-        this(maxPoolSize, Duration.ofDays(1));
-    }
+        void remember(Charset charset) {
+            if (this.charset != charset) {
+                this.charset = charset;
+            }
+        }
 
-    public JavacTaskPool(int maxPoolSize, Duration maxAge) {
-        this.maxPoolSize = maxPoolSize;
-        this.maxAge = maxAge.toMillis();
-    }
+        /**
+         * 类加载器被回收或分片被移除后分片不再有效，其中的 Context 不再复用
+         */
+        boolean isAlive() {
+            return !removed && classLoader.get() != null;
+        }
 
-    /**
-     * Creates a new task as if by {@link javax.tools.JavaCompiler#getTask} and runs the provided
-     * worker with it. The task is only valid while the worker is running. The internal structures
-     * may be reused from some previous compilation.
-     *
-     * @param diagnosticListener a diagnostic listener; if {@code
-     *                           null} use the compiler's default method for reporting
-     *                           diagnostics
-     * @param options            compiler options, {@code null} means no options
-     * @param classes            names of classes to be processed by annotation
-     *                           processing, {@code null} means no class names
-     * @param compilationUnits   the compilation units to compile, {@code
-     *                           null} means no compilation units
-     * @param worker             that should be run with the task
-     * @return an object representing the compilation
-     * @throws RuntimeException         if an unrecoverable error
-     *                                  occurred in a user supplied component.  The
-     *                                  {@linkplain Throwable#getCause() cause} will be the error in
-     *                                  user code.
-     * @throws IllegalArgumentException if any of the options are invalid,
-     *                                  or if any of the given compilation units are of other kind than
-     *                                  {@linkplain JavaFileObject.Kind#SOURCE source}
-     */
-    @SneakyThrows
-    public <Z> Z getTask(DiagnosticListener<? super JavaFileObject> diagnosticListener,
-                         Locale locale,
-                         Charset charset,
-                         Iterable<String> options,
-                         Iterable<String> classes,
-                         Iterable<? extends JavaFileObject> compilationUnits,
-                         ClassLoader classLoader,
-                         BiFunction<Context, JavacTask, Z> worker) {
-        List<String> opts =
-                StreamSupport.stream(options.spliterator(), false)
-                        .collect(Collectors.toCollection(ArrayList::new));
+        AtomicReference<ConcurrentNameTable> nameTable() {
+            return nameTable;
+        }
 
-        ReusableContext ctx;
+        int maxClasspathClasses() {
+            return settings.getMaxClasspathClasses();
+        }
 
-        synchronized (this) {
-            Queue<ReusableContext> cached =
-                    options2Contexts.getOrDefault(opts, EMPTY_QUEUE);
+        int candidatesCacheSize() {
+            return settings.getCandidatesCacheSize();
+        }
 
-            if (cached.isEmpty()) {
-                ctx = new ReusableContext(opts);
-                statNew++;
-            } else {
-                ctx = cached.remove();
-                statReused++;
-            }
+        boolean isHot(long window) {
+            return lastBorrowed != 0 && (window <= 0 || System.currentTimeMillis() - lastBorrowed <= window);
         }
+    }
 
-        ctx.useCount++;
+    /**
+     * WORKERS 模式下的编译线程，独占若干个空闲 Context，只借出给本线程，超出 workerContexts 时关闭最久未用的。
+     * 独占的 Context 同样计入空闲总数，受 maxPoolSize（自适应模式下为动态容量）限制，并与分片中的 Context 一起参与后台清理和收缩
+     */
+    final class CompileWorker extends ForkJoinWorkerThread {
+        private final IdleQueue owned = new IdleQueue();
 
-        ClientCodeWrapper ccw = ClientCodeWrapper.instance(ctx);
-        if (diagnosticListener != null) {
-            ctx.put(DiagnosticListener.class, ccw.wrap(diagnosticListener));
-        }
-        MemoryFileManager memoryFileManager = ctx.get(MemoryFileManager.class);
-        if (memoryFileManager == null) {
-            ctx.put(Locale.class, locale);
-            CacheFSInfo.preRegister(ctx);
-            memoryFileManager = new MemoryFileManager(new JavacFileManager(ctx, false, charset), classLoader);
-            ctx.put(MemoryFileManager.class, memoryFileManager);
-        } else {
-            memoryFileManager.setClassLoader(classLoader);
-            memoryFileManager.setContext(ctx);
-            memoryFileManager.setCharset(charset);
+        CompileWorker(ForkJoinPool pool) {
+            super(pool);
         }
-        ctx.put(Log.errKey, new PrintWriter(Writer.nullWriter()));
-        JavacTaskImpl task =
-                (JavacTaskImpl) systemProvider.getTask(null, memoryFileManager, null,
-                        opts, classes, compilationUnits, ctx);
 
-        task.addTaskListener(ctx);
+        @Override
+        protected void onStart() {
+            super.onStart();
+            setName("javac-task-pool-worker-" + getPoolIndex());
+            workers.add(this);
+        }
 
-        Throwable ex = null;
-        Z result = null;
-        try {
-            Types types = Types.instance(ctx);
-            if (!MODIFY_BY_AGENT) {
-                CompileUtil.clear(types);
-            }
-            // 这个cache 会导致速度大量下降，所以禁用
-            //noinspection rawtypes,unchecked
-            types.candidatesCache.cache = new HashMap() {
-                @Override
-                public Object put(Object key, Object value) {
-                    return null;
-                }
-            };
-            result = worker.apply(ctx, task);
-        } catch (Throwable e) {
-            ex = e;
-        } finally {
-            //additional cleanup: purge the compiled package:
-            Symtab symtab = Symtab.instance(ctx);
-            Names names = Names.instance(ctx);
-            Symbol.ModuleSymbol module = symtab.java_base == symtab.noModule ? symtab.noModule
-                    : symtab.unnamedModule;
-            Symbol.Completer completer = ClassFinder.instance(ctx).getCompleter();
-            List<MemoryOutputJavaFileObject> outputs = memoryFileManager.getOutputs();
-            for (MemoryOutputJavaFileObject output : outputs) {
-                String binaryName = output.getBinaryName();
-                Symbol.ClassSymbol aClass = symtab.getClass(module, names.fromString(binaryName));
-                if (aClass != null) {
-                    for (Symbol.ClassSymbol value : CompileUtil.remove(symtab, aClass.flatName()).values()) {
-                        value.packge().members_field = null;
-                        value.packge().completer = completer;
+        ReusableContext acquire(Shard shard) {
+            windowBorrows.increment();
+            long currentTime = System.currentTimeMillis();
+            for (Iterator<ReusableContext> iterator = owned.idle.descendingIterator(); iterator.hasNext(); ) {
+                ReusableContext ctx = iterator.next();
+                if (!ctx.shard.isAlive()) {
+                    if (owned.remove(ctx)) {
+                        discard(ctx);
                     }
-                } else {
-                    Symbol.PackageSymbol aPackage = symtab.getPackage(module, names.fromString(binaryName.substring(0, binaryName.lastIndexOf('.'))));
-                    if (aPackage != null) {
-                        for (Symbol.ClassSymbol clazz : symtab.getAllClasses()) {
-                            if (clazz.packge() == aPackage) {
-                                for (Symbol.ClassSymbol value : CompileUtil.remove(symtab, clazz.flatName()).values()) {
-                                    value.packge().members_field = null;
-                                    value.packge().completer = completer;
-                                }
-                            }
-                        }
-                        aPackage.members_field = null;
-                        aPackage.completer = completer;
+                } else if (ctx.shard == shard && owned.remove(ctx)) {
+                    // 后台清理可能并发取走了同一个 Context，只有成功取出时才借出
+                    if (!isExpired(ctx, currentTime)) {
+                        statReused.increment();
+                        return ctx;
                     }
+                    discard(ctx);
                 }
             }
-            if (!MODIFY_BY_AGENT) {
-                // 清理 Scope 中可能的未清理资源
-                CompileUtil.clear(symtab);
-            }
+            return newContext(shard);
         }
 
-        //not returning the context to the pool if task crashes with an exception
-        //the task/context may be in a broken state
-        ctx.clear();
-        if (ctx.polluted || ex != null) {
-            statPolluted++;
-            memoryFileManager.doClose();// close the file manager
-        } else {
-            CLEANUP.invokeExact(task);
+        void release(ReusableContext ctx) {
             long currentTime = System.currentTimeMillis();
             if (ctx.timeStamp == 0) {
                 ctx.timeStamp = currentTime;
             }
-            synchronized (this) {
-                ReusableContext toRemove;
-                while ((toRemove = oldestContext()) != null && ((currentTime - toRemove.timeStamp > maxAge) || cacheSize() + 1 > maxPoolSize)) {
-                    toRemove.get(MemoryFileManager.class).doClose();// close the file manager
-                    options2Contexts.get(toRemove.arguments).remove(toRemove);
-                    statRemoved++;
+            if (closed || !ctx.shard.isAlive() || isExpired(ctx, currentTime)) {
+                discard(ctx);
+                return;
+            }
+            if (shouldRetire(ctx)) {
+                discard(ctx);
+                statRetired.increment();
+                return;
+            }
+            if (settings.isAdaptive()) {
+                long sample = estimateFootprint(ctx);
+                footprint = footprint == 0 ? sample : (footprint * 7 + sample) / 8;
+            }
+            ctx.lastUsed = currentTime;
+            owned.offerNewest(ctx);
+            if (owned.size.get() > Math.max(1, settings.getWorkerContexts())) {
+                ReusableContext oldest = owned.pollOldest();
+                if (oldest != null) {
+                    discard(oldest);
                 }
-                options2Contexts.computeIfAbsent(ctx.arguments, x -> new ArrayDeque<>()).add(ctx);
+            }
+            int capacity = idleCapacity;
+            if (idleCount.get() > capacity) {
+                evictLeastRecentlyUsed(capacity, 0);
+            }
+            if (closed) {
+                // 与 close 并发时由这里关闭，避免遗漏
+                owned.drain();
             }
         }
-        if (ex != null) {
-            throw ex;
+
+        @Override
+        protected void onTermination(Throwable exception) {
+            workers.remove(this);
+            owned.drain();
+            super.onTermination(exception);
         }
-        return result;
     }
 
-    //where:
-    private long cacheSize() {
-        long sum = 0L;
-        for (Queue<ReusableContext> reusableContexts : options2Contexts.values()) {
-            sum += reusableContexts.size();
+    /**
+     * 在共享的守护线程上周期性执行池的维护任务，只弱引用池本身，池被回收后任务自动取消
+     */
+    static final class Maintenance implements Runnable {
+        private static final ScheduledThreadPoolExecutor SCHEDULER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "javac-task-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        /**
+         * 新建并预热 Context 是 CPU 密集的，单独使用有界的线程池，避免阻塞周期性的清理任务
+         */
+        private static final ThreadPoolExecutor WARMER = new ThreadPoolExecutor(
+                0, Math.max(1, Runtime.getRuntime().availableProcessors() / 4), 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "javac-task-pool-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        static {
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+
+        private final WeakReference<JavacTaskPool> pool;
+        private final Consumer<JavacTaskPool> action;
+        private volatile ScheduledFuture<?> future;
+
+        private Maintenance(JavacTaskPool pool, Consumer<JavacTaskPool> action) {
+            this.pool = new WeakReference<>(pool);
+            this.action = action;
+        }
+
+        static ScheduledFuture<?> schedule(JavacTaskPool pool, Duration period, Consumer<JavacTaskPool> action) {
+            Maintenance maintenance = new Maintenance(pool, action);
+            long millis = period.toMillis();
+            maintenance.future = SCHEDULER.scheduleWithFixedDelay(maintenance, millis, millis, TimeUnit.MILLISECONDS);
+            return maintenance.future;
+        }
+
+        static void execute(JavacTaskPool pool, Consumer<JavacTaskPool> action) {
+            pool.maintenanceExecutor.execute(new Maintenance(pool, action));
         }
-        return sum;
-    }
 
-    private ReusableContext oldestContext() {
-        ReusableContext oldest = null;
-        for (Queue<ReusableContext> value : options2Contexts.values()) {
-            for (ReusableContext context : value) {
-                if (oldest == null || context.timeStamp < oldest.timeStamp) {
-                    oldest = context;
+        @Override
+        public void run() {
+            JavacTaskPool target = pool.get();
+            if (target == null) {
+                ScheduledFuture<?> self = future;
+                if (self != null) {
+                    self.cancel(false);
                 }
+                return;
+            }
+            try {
+                action.accept(target);
+            } catch (Exception ignored) {
+                // 维护失败不应终止后续的周期执行
             }
         }
-        return oldest;
     }
 
 
-    public void printStatistics(PrintStream out) {
-        out.println(statReused + " reused Contexts");
-        out.println(statNew + " newly created Contexts");
-        out.println(statPolluted + " polluted Contexts");
-        out.println(statRemoved + " removed Contexts");
+    /**
+     * 在任务监听器中抛出以中止被取消的任务，不记录栈
+     */
+    static final class Cancelled extends RuntimeException {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        static final Cancelled INSTANCE = new Cancelled();
+
+        private Cancelled() {
+            super("cancelled", null, false, false);
+        }
     }
 
+    /**
+     * 卸载到编译线程上的任务，按优先级、同一优先级内按提交顺序出队
+     */
+    static final class PrioritizedTask<Z> extends FutureTask<Z> implements Comparable<PrioritizedTask<?>> {
+        private static final AtomicLong SEQUENCE = new AtomicLong();
+
+        final Priority priority;
+        final long sequence = SEQUENCE.getAndIncrement();
+
+        PrioritizedTask(Priority priority, Callable<Z> callable) {
+            super(callable);
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask<?> o) {
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
 
     static class ReusableContext extends Context implements TaskListener {
 
         Set<CompilationUnitTree> roots = new HashSet<>();
 
         List<String> arguments;
+        /**
+         * 上一次任务的完整参数，与本次不同时需要重置每次任务的参数
+         */
+        List<String> taskOptions;
+        /**
+         * 本次任务中发现并已修复的污染：在 java.* 包中新增的（JDK 中不存在的）类
+         */
+        boolean repaired;
+        /**
+         * 一次性的 Context，用完即关闭，不归还到池中
+         */
+        boolean throwaway;
+        /**
+         * Context 所属的分片，归还时回到该分片
+         */
+        Shard shard;
+        /**
+         * 本次任务的取消令牌，没有时为 null
+         */
+        CancellationToken cancellation;
+        /**
+         * 本次任务是否因取消而提前结束
+         */
+        boolean cancelled;
         boolean polluted = false;
 
         int useCount;
         long timeStamp;
+        long lastUsed;
+        int recordedClassCount;
+        /**
+         * 从类路径补全的顶层类，按最近一次补全的先后排序，未设置 maxClasspathClasses 时为 null
+         */
+        LinkedHashSet<Symbol.ClassSymbol> classpathClasses;
 
-        ReusableContext(List<String> arguments) {
+        ReusableContext(Shard shard) {
             super();
-            this.arguments = arguments;
+            this.shard = shard;
+            this.arguments = shard.options;
             put(Log.logKey, ReusableLog.factory);
             put(JavaCompiler.compilerKey, ReusableJavaCompiler.factory);
+            ReusableTypes.preRegister(this, shard.candidatesCacheSize());
+            if (shard.maxClasspathClasses() > 0) {
+                classpathClasses = new LinkedHashSet<>();
+                ReusableClassReader.preRegister(this);
+            }
+            if (shard.nameTable() != null) {
+                ReusableNames.preRegister(this, shard.nameTable());
+            }
         }
 
         void clear() {
@@ -384,6 +1821,7 @@ public class JavacTaskPool {
 
                 //find if any of the roots have redefined java.* classes
                 Symtab syms = Symtab.instance(this);
+                repaired = false;
                 pollutionScanner.scan(roots, syms);
                 roots.clear();
             }
@@ -414,8 +1852,18 @@ public class JavacTaskPool {
                 if (sym != null) {
                     syms.removeClass(sym.packge().modle, sym.flatName());
                     Type sup = supertype(sym);
-                    if (isCoreClass(sym) ||
-                        (sup != null && isCoreClass(sup.tsym) && sup.tsym.kind != Kinds.Kind.TYP)) {
+                    if (isCoreClass(sym)) {
+                        if (isPlatformClass(sym)) {
+                            // 重定义了 JDK 中已有的核心类，共享的 ClassSymbol 已被源码覆盖，无法修复
+                            polluted = true;
+                        } else {
+                            // 只是在 java.* 包中新增了类：类已从符号表移除，再让其所在的包在下次使用时重新从 class 文件补全
+                            Symbol.PackageSymbol packge = sym.packge();
+                            packge.members_field = null;
+                            packge.completer = ClassFinder.instance(ReusableContext.this).getCompleter();
+                            repaired = true;
+                        }
+                    } else if (sup != null && isCoreClass(sup.tsym) && sup.tsym.kind != Kinds.Kind.TYP) {
                         polluted = true;
                     }
                 }
@@ -426,6 +1874,11 @@ public class JavacTaskPool {
                 return s.flatName().toString().startsWith("java.");
             }
 
+            private boolean isPlatformClass(Symbol s) {
+                String path = s.outermostClass().flatName().toString().replace('.', '/') + ".class";
+                return ClassLoader.getPlatformClassLoader().getResource(path) != null;
+            }
+
             private Type supertype(Symbol s) {
                 if (s.type == null ||
                     !s.type.hasTag(TypeTag.CLASS)) {
@@ -448,7 +1901,19 @@ public class JavacTaskPool {
         @Override
         @DefinedBy(Api.COMPILER_TREE)
         public void started(TaskEvent e) {
-            //do nothing
+            // 属性分析逐个类进行，开始分析下一个类之前检查取消：此时上一个类已处理完，下一个类还未开始，
+            // 中止后留下的只有 todo 队列中未处理的类，会在 clear 时随新一轮编译一起清除。
+            // 其他阶段由 ReusableJavaCompiler#shouldStop 跳过
+            if (e.getKind() == Kind.ANALYZE && isCancelled()) {
+                throw Cancelled.INSTANCE;
+            }
+        }
+
+        boolean isCancelled() {
+            if (!cancelled && cancellation != null && cancellation.isCancelled()) {
+                cancelled = true;
+            }
+            return cancelled;
         }
 
         <T> void drop(Key<T> k) {
@@ -467,8 +1932,19 @@ public class JavacTaskPool {
 
             static final Factory<JavaCompiler> factory = ReusableContext.ReusableJavaCompiler::new;
 
+            final ReusableContext context;
+
             ReusableJavaCompiler(Context context) {
                 super(context);
+                this.context = (ReusableContext) context;
+            }
+
+            /**
+             * 任务被取消后跳过之后的所有阶段（进入符号表、数据流分析、脱糖、生成字节码）
+             */
+            @Override
+            protected boolean shouldStop(CompileStates.CompileState cs) {
+                return context.isCancelled() || super.shouldStop(cs);
             }
 
             @Override
@@ -486,6 +1962,140 @@ public class JavacTaskPool {
             }
         }
 
+        /**
+         * Reusable Types; {@link Types#candidatesCache} 原本是跨编译增长的 WeakHashMap，在复用的 Context 中会拖慢查找，
+         * 这里换成单次编译内有界的缓存，随 newRound 清空，保留同一次编译中重复查找接口方法候选的加速
+         */
+        static class ReusableTypes extends Types {
+
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            ReusableTypes(Context context, int maxCandidates) {
+                super(context);
+                // 键 Types.CandidatesCache.Entry 不可访问，只能使用原始类型
+                candidatesCache.cache = (Map) new BoundedMap<>(maxCandidates);
+            }
+
+            static void preRegister(Context context, int maxCandidates) {
+                context.put(typesKey, (Factory<Types>) c -> new ReusableTypes(c, maxCandidates));
+            }
+
+            @Override
+            public void newRound() {
+                super.newRound();
+                candidatesCache.cache.clear();
+            }
+
+            /**
+             * 超出上限时丢弃最早放入的
+             */
+            private static final class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+                @Serial
+                private static final long serialVersionUID = 1L;
+                private final int maxSize;
+
+                BoundedMap(int maxSize) {
+                    this.maxSize = maxSize;
+                }
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                    return size() > maxSize;
+                }
+            }
+        }
+
+        /**
+         * 记录从类路径补全的类，供 maxClasspathClasses 淘汰最久未用的类
+         */
+        static class ReusableClassReader extends ClassReader {
+            private static final String CT_SYM = "jar:" + Path.of(System.getProperty("java.home"), "lib", "ct.sym").toUri();
+
+            final ReusableContext context;
+
+            ReusableClassReader(Context context) {
+                super(context);
+                this.context = (ReusableContext) context;
+            }
+
+            static void preRegister(Context context) {
+                context.put(classReaderKey, (Factory<ClassReader>) ReusableClassReader::new);
+            }
+
+            @Override
+            public void readClassFile(Symbol.ClassSymbol c) {
+                JavaFileObject classfile = c.classfile;
+                super.readClassFile(c);
+                if (!isPlatform(classfile.toUri())) {
+                    // 成员类的修饰符来自外部类的 class 文件，只能随顶层类一起还原，按顶层类记录
+                    Symbol.ClassSymbol outermost = c.outermostClass();
+                    context.classpathClasses.remove(outermost);
+                    context.classpathClasses.add(outermost);
+                }
+            }
+
+            /**
+             * @return 是否是 JDK 中的 class 文件（jrt 镜像或 ct.sym）
+             */
+            private static boolean isPlatform(URI uri) {
+                return "jrt".equals(uri.getScheme()) || "jar".equals(uri.getScheme()) && uri.toString().startsWith(CT_SYM);
+            }
+        }
+
+        /**
+         * 使用池共享的 {@link ConcurrentNameTable} 的 Names，标准名字（init、java_lang_Object 等）也来自共享的表，
+         * 所以各个 Context 中相同的名字是同一个实例
+         */
+        static class ReusableNames extends Names {
+            /**
+             * {@link #createTable} 在父类构造器中调用，此时子类的字段还未赋值，由构造它的线程传入共享的名字表
+             */
+            private static final ThreadLocal<AtomicReference<ConcurrentNameTable>> SHARED = new ThreadLocal<>();
+            /**
+             * 只在共享的表尚未创建时使用，使第一个 Names 的标准名字全部赋值之后，共享的表才对其他 Context 可见；
+             * 使用 {@link ReentrantLock} 而不是 synchronized，在虚拟线程上创建 Context 时不会钉住载体线程
+             */
+            private static final ReentrantLock CREATING = new ReentrantLock();
+
+            ReusableNames(Context context) {
+                super(context);
+                context.put(namesKey, this);
+            }
+
+            static void preRegister(Context context, AtomicReference<ConcurrentNameTable> shared) {
+                context.put(namesKey, (Factory<Names>) c -> {
+                    if (shared.get() != null) {
+                        return create(c, shared);
+                    }
+                    CREATING.lock();
+                    try {
+                        return create(c, shared);
+                    } finally {
+                        CREATING.unlock();
+                    }
+                });
+            }
+
+            private static ReusableNames create(Context context, AtomicReference<ConcurrentNameTable> shared) {
+                SHARED.set(shared);
+                try {
+                    ReusableNames names = new ReusableNames(context);
+                    if (shared.get() == null) {
+                        shared.set((ConcurrentNameTable) names.table);
+                    }
+                    return names;
+                } finally {
+                    SHARED.remove();
+                }
+            }
+
+            @Override
+            protected Name.Table createTable(Options options) {
+                ConcurrentNameTable table = SHARED.get().get();
+                // 第一个 Context 的 Names 同时作为共享名字表的标准名字（Name.Table#names）
+                return table != null ? table : new ConcurrentNameTable(this);
+            }
+        }
+
         /**
          * Reusable Log; exposes a method to clean up the component from leftovers associated with
          * previous compilations.
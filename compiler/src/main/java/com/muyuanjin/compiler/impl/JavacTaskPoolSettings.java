@@ -0,0 +1,208 @@
+package com.muyuanjin.compiler.impl;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * {@link JavacTaskPool} 的配置，不可变
+ */
+@Value
+@Builder(toBuilder = true)
+public class JavacTaskPoolSettings {
+    /**
+     * 池中最多保留的空闲 Context 数量
+     */
+    @Builder.Default
+    int maxPoolSize = Runtime.getRuntime().availableProcessors() * 2;
+    /**
+     * Context 自首次归还起的最长存活时间
+     */
+    @Builder.Default
+    Duration maxAge = Duration.ofDays(1);
+    /**
+     * 空闲超过该时长的 Context 由后台任务关闭，为 0 时禁用（默认），空闲的 Context 只在 maxAge 到期或超出容量时关闭
+     */
+    @Builder.Default
+    Duration idleTimeout = Duration.ZERO;
+    /**
+     * 后台清理时每种编译参数至少保留的空闲 Context 数量
+     */
+    @Builder.Default
+    int minIdle = 0;
+    /**
+     * 后台清理后保留的空闲 Context 总数上限，与 maxPoolSize 不同，超出时不会在归还时立即淘汰
+     */
+    @Builder.Default
+    int maxIdle = Integer.MAX_VALUE;
+    /**
+     * 后台清理的执行间隔
+     */
+    @Builder.Default
+    Duration janitorInterval = Duration.ofMinutes(1);
+    /**
+     * Context 的最大使用次数，达到后退役，小于等于 0 表示不限制
+     */
+    @Builder.Default
+    int maxUses = 0;
+    /**
+     * Context 符号表（Symtab）中类数量的上限，超出后退役，小于等于 0 表示不限制
+     */
+    @Builder.Default
+    int maxSymtabClasses = 0;
+    /**
+     * Context 名字表（Names）估计占用字节数的上限，超出后退役，小于等于 0 表示不限制。开启 sharedNames 时不适用
+     */
+    @Builder.Default
+    long maxNameTableBytes = 0;
+    /**
+     * Context 中从类路径补全的顶层类（不含 JDK）数量的上限，超出后在归还时把最久没有再补全过的类还原为未补全状态，
+     * 释放其成员，用到时重新从 class 文件补全，Context 不因此退役，小于等于 0 表示不限制
+     */
+    @Builder.Default
+    int maxClasspathClasses = 0;
+    /**
+     * 堆内存水位线，GC 后老年代占用与其最大容量之比超过该值时收缩池并清理文件缓存，取值 (0, 1)，其他值表示禁用
+     */
+    @Builder.Default
+    double heapWatermark = 0;
+    /**
+     * 自适应模式：根据统计窗口内的并发借用峰值、复用未命中率和 Context 的估计占用，在 [minPoolSize, maxPoolSize] 之间调整空闲容量
+     */
+    @Builder.Default
+    boolean adaptive = false;
+    /**
+     * 自适应模式下空闲容量的下限
+     */
+    @Builder.Default
+    int minPoolSize = 1;
+    /**
+     * 自适应模式的统计窗口，也是调整容量的间隔
+     */
+    @Builder.Default
+    Duration adaptiveWindow = Duration.ofSeconds(30);
+    /**
+     * 自适应模式下空闲 Context 的估计总占用不超过最大堆内存的比例
+     */
+    @Builder.Default
+    double adaptiveHeapFraction = 0.25;
+    /**
+     * 同时借出（正在编译）的 Context 上限，超出的请求排队等待，小于等于 0 表示不限制。
+     * 只限制并发的编译，空闲的 Context 由 maxPoolSize 限制
+     */
+    @Builder.Default
+    int maxActive = 0;
+    /**
+     * 排队等待的最长时间，超时抛出 {@link java.util.concurrent.RejectedExecutionException}，为 0 时不等待
+     */
+    @Builder.Default
+    Duration acquireTimeout = Duration.ofSeconds(30);
+    /**
+     * maxActive 中只留给 {@link Priority#INTERACTIVE} 任务的名额，其他优先级的任务最多同时借出 maxActive - reservedInteractive 个
+     */
+    @Builder.Default
+    int reservedInteractive = 0;
+    /**
+     * maxActive 中留给 {@link Priority#NORMAL} 及以上优先级任务的名额，{@link Priority#BULK} 任务最多同时借出
+     * maxActive - reservedInteractive - reservedNormal 个
+     */
+    @Builder.Default
+    int reservedNormal = 0;
+    /**
+     * 单次编译所有源码的总字符数上限，小于等于 0 表示不限制
+     */
+    @Builder.Default
+    long maxSourceLength = 0;
+    /**
+     * 单次编译的源文件数量上限，按文件计数（一个文件可以定义多个类），小于等于 0 表示不限制
+     */
+    @Builder.Default
+    int maxSourceFiles = 0;
+    /**
+     * 同一批源码（按文件名和内容计算指纹）无法修复地污染 Context（重定义 JDK 中已有的核心类，或编译中抛出异常）达到该次数后，
+     * 之后的编译在一次性的 Context 上进行，不再影响池中预热好的 Context，小于等于 0 表示禁用。
+     * 原地修复的污染（在 java.* 包中新增类）不计入
+     */
+    @Builder.Default
+    int repeatOffenderThreshold = 2;
+    /**
+     * 模板模式：分片中没有可用的 Context、需要新建时，同时在后台预热一个 Context 放入该分片，之后的扩容直接借用，
+     * 请求线程不必从头创建 Context 并补全 java.base。javac 的 Context 无法复制，所以不是从模板克隆，
+     * 而是与 minIdle 相同的后台补充，预热好的 Context 计入空闲容量，同样会被空闲清理、容量淘汰和内存紧张时的收缩关闭
+     */
+    @Builder.Default
+    boolean templates = false;
+    /**
+     * 所有 Context 共享一个线程安全的名字表：JDK 和类路径中的名字只存一份，只在已结束的编译中出现过的名字可以被 GC 回收，
+     * 长期复用的 Context 的名字表不再只增不减
+     */
+    @Builder.Default
+    boolean sharedNames = false;
+    /**
+     * 所有 Context 的文件管理器共享文件信息缓存（FSInfo）和类路径 jar 包的 zip 文件系统及其索引，按引用计数关闭，
+     * 不再每个 Context 各自打开一份。默认关闭：共享的 jar 包在所有 Context 关闭前一直保持打开，编译期间被替换的 jar 包不会重新读取
+     */
+    @Builder.Default
+    boolean sharedFileSystems = false;
+    /**
+     * 单次编译中缓存的接口方法候选（Types#interfaceCandidates 的结果）数量上限，每次编译结束时清空，为 0 时不缓存
+     */
+    @Builder.Default
+    int candidatesCacheSize = 1024;
+
+    /**
+     * 编译任务在哪个线程上执行
+     */
+    @Builder.Default
+    ExecutionMode executionMode = ExecutionMode.CALLER;
+    /**
+     * {@link ExecutionMode#OFFLOAD} 和 {@link ExecutionMode#WORKERS} 模式下专用编译线程的数量，即编译的并行度
+     */
+    @Builder.Default
+    int offloadThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * {@link ExecutionMode#WORKERS} 模式下每个编译线程独占的空闲 Context 数量上限，超出时关闭最久未用的。
+     * 独占的 Context 计入池的空闲总数，同样受 maxPoolSize 限制，空闲超过 idleTimeout 或内存紧张时也会被关闭
+     */
+    @Builder.Default
+    int workerContexts = 2;
+
+    public static JavacTaskPoolSettings defaults() {
+        return builder().build();
+    }
+
+    public enum ExecutionMode {
+        /**
+         * 在调用者线程上编译
+         */
+        CALLER,
+        /**
+         * 在池专用的有界平台线程池上编译，调用者以可中断、不钉住载体线程的方式等待结果，
+         * 适合在虚拟线程上发起编译：长时间的 CPU 密集编译不会占用载体线程
+         */
+        OFFLOAD,
+        /**
+         * 在固定数量的编译线程上编译，每个线程独占自己的 Context，不与其他线程交换。
+         * 任务经由 {@link java.util.concurrent.ForkJoinPool} 的队列分发，空闲线程从其他队列窃取任务；
+         * 同一 Context 始终在同一线程上运行，符号表保持在该线程所在核心的缓存中，借还也无需同步
+         */
+        WORKERS
+    }
+
+    /**
+     * 编译任务的优先级。设置了 maxActive 时，排队的任务按优先级依次获得名额，同一优先级内先到先得，
+     * 低优先级的任务不会越过排队中的高优先级任务；{@link ExecutionMode#OFFLOAD} 模式下编译线程也按优先级取任务
+     */
+    public enum Priority {
+        /**
+         * 交互式编译，例如用户在界面上编辑后等待结果，对延迟敏感
+         */
+        INTERACTIVE,
+        NORMAL,
+        /**
+         * 批量编译，例如后台批量重新生成，只在没有更高优先级的任务排队时获得名额
+         */
+        BULK
+    }
+}
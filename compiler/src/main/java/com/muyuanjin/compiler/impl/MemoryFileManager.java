@@ -6,6 +6,7 @@ import com.muyuanjin.compiler.util.JFields;
 import com.sun.tools.javac.file.BaseFileManager;
 import com.sun.tools.javac.file.JavacFileManager;
 import com.sun.tools.javac.util.Context;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
@@ -32,7 +33,15 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
 
     private static final Cache<JavaFileObjectKey, String> BINARY_NAME_CACHE = Caffeine.newBuilder().softValues().build();
 
+    /**
+     * JDK 位置（jrt 镜像、ct.sym）的列表，进程内不变，所有文件管理器共享
+     */
     private static final Cache<String, List<JavaFileObject>> FILE_LIST_CACHE = Caffeine.newBuilder().softValues().build();
+    /**
+     * 其他位置（类路径等）的列表按文件管理器分别缓存：其内容取决于各自的参数，
+     * 列出的文件对象属于打开它的 jar 包，jar 包随文件管理器关闭后不能再交给其他文件管理器使用
+     */
+    private static final Cache<JavaFileManager, Cache<String, List<JavaFileObject>>> OWNED_FILE_LIST_CACHE = Caffeine.newBuilder().weakKeys().build();
 
     private static final Cache<ClassLoader, Cache<String, List<JavaFileObject>>> EXTERNAL_JARS_CACHE = Caffeine.newBuilder().weakKeys().build();
 
@@ -40,11 +49,25 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
     //TODO impl classpath jdk.jshell.TaskFactory.addToClasspath
     private final List<MemoryOutputJavaFileObject> outputs = new ArrayList<>();
     private ClassLoader classLoader;
+    /**
+     * 与池中其他文件管理器共享的类路径 jar 包，不共享时为 null
+     */
+    @Getter(AccessLevel.NONE)
+    private final SharedArchives archives;
+    /**
+     * 已放入文件管理器的共享 jar 包，尚未放入时为 null
+     */
+    @Getter(AccessLevel.NONE)
+    private List<Object> attachedArchives;
 
-    @SneakyThrows
     public MemoryFileManager(JavacFileManager fileManager, ClassLoader classLoader) {
+        this(fileManager, classLoader, null);
+    }
+
+    MemoryFileManager(JavacFileManager fileManager, ClassLoader classLoader, SharedArchives archives) {
         super(fileManager);
         this.classLoader = classLoader;
+        this.archives = archives;
     }
 
     public JavacFileManager getOriginal() {
@@ -131,7 +154,7 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
         // 构造一个唯一的缓存键
         String key = location.getName() + ":" + packageName + ":" + kinds + ":" + recurse;
         // 从缓存中获取数据，如果缓存中没有则调用原始的list方法加载数据
-        var fileManagerList = FILE_LIST_CACHE.get(key, k -> {
+        var fileManagerList = fileListCache(location).get(key, k -> {
             Iterable<JavaFileObject> iterable = list0(location, packageName, kinds, recurse);
             List<JavaFileObject> result;
             if (iterable instanceof Collection<JavaFileObject> c) {
@@ -150,6 +173,13 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
         return externalClasses.isEmpty() ? fileManagerList : new AggregatingIterable<>(fileManagerList, externalClasses);
     }
 
+    private Cache<String, List<JavaFileObject>> fileListCache(Location location) {
+        if (location == StandardLocation.PLATFORM_CLASS_PATH || location.getName().startsWith(StandardLocation.SYSTEM_MODULES.getName())) {
+            return FILE_LIST_CACHE;
+        }
+        return OWNED_FILE_LIST_CACHE.get(this, k -> Caffeine.newBuilder().softValues().build());
+    }
+
     @SneakyThrows
     private Iterable<JavaFileObject> list0(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) {
         return super.list(location, packageName, kinds, recurse);
@@ -225,6 +255,23 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
         return jarUri;
     }
 
+    /**
+     * 清空所有 MemoryFileManager 共享的静态缓存，用于内存紧张时主动释放
+     */
+    public static void trimCaches() {
+        BINARY_NAME_CACHE.invalidateAll();
+        FILE_LIST_CACHE.invalidateAll();
+        OWNED_FILE_LIST_CACHE.invalidateAll();
+        EXTERNAL_JARS_CACHE.invalidateAll();
+    }
+
+    /**
+     * @return 共享的静态缓存中文件列表的数量
+     */
+    static long cachedFileLists() {
+        return FILE_LIST_CACHE.estimatedSize();
+    }
+
     /**
      * 开启新一轮编译，清除输出
      */
@@ -232,11 +279,27 @@ public class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager
         outputs.clear();
     }
 
+    /**
+     * 第一次创建任务（应用类路径、multi-release 参数）之后调用，把池中共享的类路径 jar 包放入文件管理器。
+     * 同一 Context 的类路径不变，之后的任务不再处理
+     */
+    void attachArchives() {
+        if (archives != null && attachedArchives == null) {
+            attachedArchives = archives.attach(getOriginal());
+        }
+    }
+
     /**
      * 替代close成为丢弃前的终结方法
      */
     @SneakyThrows
     public void doClose() {
+        OWNED_FILE_LIST_CACHE.invalidate(this);
+        if (attachedArchives != null) {
+            // 共享的 jar 包由最后一个使用它的文件管理器关闭
+            archives.release(getOriginal(), attachedArchives);
+            attachedArchives = null;
+        }
         super.close();
     }
 
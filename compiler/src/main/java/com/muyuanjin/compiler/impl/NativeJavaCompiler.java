@@ -1,10 +1,14 @@
 package com.muyuanjin.compiler.impl;
 
+import com.muyuanjin.compiler.CancellationToken;
 import com.muyuanjin.compiler.CompilationProblem;
 import com.muyuanjin.compiler.CompilationResult;
 import com.muyuanjin.compiler.CompilationResult.Clazz;
+import com.muyuanjin.compiler.CompilerProfile;
 import com.muyuanjin.compiler.JavaCompilerSettings;
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.Priority;
 import com.muyuanjin.compiler.util.JModules;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.SneakyThrows;
 
@@ -16,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 @Getter
 public final class NativeJavaCompiler extends AbstractJavaCompiler {
@@ -24,24 +29,128 @@ public final class NativeJavaCompiler extends AbstractJavaCompiler {
     public static final boolean MODIFY_BY_AGENT = JavacTaskPool.MODIFY_BY_AGENT;
     private static final JavacTaskPool TASK_POOL = new JavacTaskPool();
     private final JavacTaskPool taskPool;
+    /**
+     * 本编译器提交的任务所属的租户，为 null 时属于池的默认租户
+     */
+    private final Tenant tenant;
+    /**
+     * 本编译器提交的任务在池中排队的优先级
+     */
+    private final Priority priority;
+    /**
+     * 最近一次按 {@link JavaCompilerSettings} 构建的 profile，设置生成的 javac 参数没有变化时直接复用，
+     * 省去每次规范化参数列表和解析字符集的开销
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile CompilerProfile lastProfile;
 
     public NativeJavaCompiler() {
-        this.taskPool = TASK_POOL;
+        this(TASK_POOL, null, Priority.NORMAL);
     }
 
     public NativeJavaCompiler(int maxPoolSize) {
-        this.taskPool = new JavacTaskPool(maxPoolSize);
+        this(new JavacTaskPool(maxPoolSize), null, Priority.NORMAL);
     }
 
     public NativeJavaCompiler(int maxPoolSize, Duration maxAge) {
-        this.taskPool = new JavacTaskPool(maxPoolSize, maxAge);
+        this(new JavacTaskPool(maxPoolSize, maxAge), null, Priority.NORMAL);
+    }
+
+    public NativeJavaCompiler(JavacTaskPoolSettings poolSettings) {
+        this(new JavacTaskPool(poolSettings), null, Priority.NORMAL);
+    }
+
+    NativeJavaCompiler(JavacTaskPool taskPool) {
+        this(taskPool, null, Priority.NORMAL);
+    }
+
+    private NativeJavaCompiler(JavacTaskPool taskPool, Tenant tenant, Priority priority) {
+        this.taskPool = taskPool;
+        this.tenant = tenant;
+        this.priority = priority;
+    }
+
+    /**
+     * @return 与本编译器共享同一个池和编译设置、但以给定优先级提交任务的编译器，
+     * 例如交互式编辑使用 {@link Priority#INTERACTIVE}，后台批量编译使用 {@link Priority#BULK}
+     */
+    public NativeJavaCompiler withPriority(Priority priority) {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(taskPool, tenant, priority);
+        compiler.settings = settings;
+        return compiler;
+    }
+
+    /**
+     * @return 与本编译器共享同一个池和编译设置、但以给定租户的名义提交任务的编译器，
+     * 租户的配额通过 {@link JavacTaskPool#tenant(String, TenantQuota)} 设置
+     */
+    public NativeJavaCompiler forTenant(String name) {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(taskPool, taskPool.tenant(name), priority);
+        compiler.settings = settings;
+        return compiler;
+    }
+
+    /**
+     * 按给定的编译设置预先创建并预热 count 个 Context
+     */
+    public void warmUp(JavaCompilerSettings settings, int count) {
+        warmUp(profile(settings), count);
+    }
+
+    public void warmUp(CompilerProfile profile, int count) {
+        taskPool.warmUp(profile, getClassLoader(), count);
+    }
+
+    public void warmUp(int count) {
+        warmUp(getSettings(), count);
     }
 
     @Override
-    @SneakyThrows
     public CompilationResult compile(Map<String, String> sources, ClassLoader classLoader, JavaCompilerSettings settings) {
+        return compile(sources, classLoader, profile(settings));
+    }
+
+    /**
+     * @return 与给定设置对应的 profile。profile 完全由设置生成的 javac 参数（包括 -encoding）决定，
+     * 与上一次 profile 的不可变参数列表相等时直接复用，原地修改过的设置生成的参数不同，不会命中
+     */
+    private CompilerProfile profile(JavaCompilerSettings settings) {
+        List<String> options = settings.toJavacOptions();
+        CompilerProfile last = lastProfile;
+        if (last != null && last.getOptions().equals(options)) {
+            return last;
+        }
+        CompilerProfile profile = CompilerProfile.of(options, Charset.forName(settings.getSourceEncoding()));
+        lastProfile = profile;
+        return profile;
+    }
+
+    public CompilationResult compile(String slashPath, String sourceCode, CompilerProfile profile) {
+        return compile(Map.of(slashPath, sourceCode), getClassLoader(), profile);
+    }
+
+    /**
+     * 使用预先构建的 {@link CompilerProfile} 编译，热点路径上重复使用同一个 profile 可以省去每次构建编译参数的开销
+     */
+    public CompilationResult compile(Map<String, String> sources, ClassLoader classLoader, CompilerProfile profile) {
+        return compile(sources, classLoader, profile, (CancellationToken) null);
+    }
+
+    /**
+     * 编译耗时超过 timeout 后提前结束，返回 {@link CompilationResult#cancelled() 已取消} 的结果
+     */
+    public CompilationResult compile(Map<String, String> sources, ClassLoader classLoader, CompilerProfile profile, Duration timeout) {
+        return compile(sources, classLoader, profile, CancellationToken.timeout(timeout));
+    }
+
+    /**
+     * 可以通过 cancellation 取消的编译，取消或超时后返回 {@link CompilationResult#cancelled() 已取消} 的结果，
+     * 所用的 Context 正常清理后归还到池中
+     */
+    @SneakyThrows
+    public CompilationResult compile(Map<String, String> sources, ClassLoader classLoader, CompilerProfile profile,
+                                     CancellationToken cancellation) {
         DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-        Charset charset = Charset.forName(settings.getSourceEncoding());
 
         final List<JavaFileObject> units = new ArrayList<>(sources.size());
         for (Map.Entry<String, String> entry : sources.entrySet()) {
@@ -51,21 +160,25 @@ public final class NativeJavaCompiler extends AbstractJavaCompiler {
             }
             units.add(new MemoryInputJavaFileObject(javaFilePath, entry.getValue()));
         }
-        Iterable<String> options = settings.toJavacOptions();
-        List<Clazz> classes = taskPool.getTask(diagnostics, null,
-                charset, options, null, units, classLoader, (ctx, task) -> {
-                    MemoryFileManager manager = ctx.get(MemoryFileManager.class);
-                    if (task.call()) {
-                        List<MemoryOutputJavaFileObject> outputs = manager.getOutputs();
-                        List<Clazz> list = new ArrayList<>(outputs.size());
-                        for (var output : outputs) {
-                            String binaryName = output.getBinaryName();
-                            list.add(new Clazz(CompileUtil.toClassResourcePath(binaryName), binaryName, output.toByteArray()));
+        List<Clazz> classes;
+        try {
+            classes = taskPool.getTask(diagnostics, null,
+                    profile, null, units, classLoader, tenant, priority, cancellation, (ctx, task) -> {
+                        MemoryFileManager manager = ctx.get(MemoryFileManager.class);
+                        if (task.call()) {
+                            List<MemoryOutputJavaFileObject> outputs = manager.getOutputs();
+                            List<Clazz> list = new ArrayList<>(outputs.size());
+                            for (var output : outputs) {
+                                String binaryName = output.getBinaryName();
+                                list.add(new Clazz(CompileUtil.toClassResourcePath(binaryName), binaryName, output.toByteArray()));
+                            }
+                            return list;
                         }
-                        return list;
-                    }
-                    return Collections.emptyList();
-                });
+                        return Collections.emptyList();
+                    });
+        } catch (CancellationException e) {
+            return CompilationResult.ofCancelled();
+        }
         var builder = CompilationResult.builder();
         if (!classes.isEmpty()) {
             return builder.classes(classes).build();
@@ -81,4 +194,4 @@ public final class NativeJavaCompiler extends AbstractJavaCompiler {
         }
         return builder.build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,269 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.Priority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按优先级和租户分配同时借出 Context 的名额。
+ * <p>
+ * 每个优先级有自己的上限：高优先级可以使用为其预留的名额，低优先级不能；
+ * 排队的任务按优先级分配名额，只要还有更高优先级的任务在排队，低优先级的任务就不会获得名额。
+ * 同一优先级内按租户加权公平分配：虚拟时间（获得名额的次数除以权重）最小的租户优先，同一租户内先到先得；
+ * 已达到自身并发上限的租户不占用队首，其他租户照常获得名额。
+ * <p>
+ * 不限制总数（maxActive 小于等于 0）时不需要在租户之间分配名额，获取和归还只按租户的并发上限原子地修改其计数，
+ * 只有需要排队等待时才加锁；默认配置下编译不会经过锁
+ */
+final class PriorityAdmission {
+    private static final Priority[] PRIORITIES = Priority.values();
+    private static final AtomicIntegerFieldUpdater<Tenant> TENANT_ACTIVE = AtomicIntegerFieldUpdater.newUpdater(Tenant.class, "active");
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int[] limits = new int[PRIORITIES.length];
+    /**
+     * 每个优先级中各租户排队的任务，只包含有任务排队的租户
+     */
+    private final List<Map<Tenant, ArrayDeque<Waiter>>> queues = new ArrayList<>(PRIORITIES.length);
+    /**
+     * 是否限制同时借出的总数，不限制时不维护 {@link #active} 和各优先级的上限
+     */
+    private final boolean bounded;
+    private int active;
+    /**
+     * 不限制总数时正在加锁获取名额的任务数量，为 0 时获取和归还名额都不需要加锁
+     */
+    private final AtomicInteger waiting = new AtomicInteger();
+    /**
+     * 最近获得名额的租户的虚拟时间，新排队的租户从这里开始，不能靠之前的空闲积攒优先权
+     */
+    private double virtualTime;
+
+    /**
+     * @param maxActive 同时借出的上限，小于等于 0 表示只按租户的并发上限限制
+     */
+    PriorityAdmission(int maxActive, int reservedInteractive, int reservedNormal) {
+        this.bounded = maxActive > 0;
+        for (Priority priority : PRIORITIES) {
+            int limit;
+            if (maxActive <= 0) {
+                limit = Integer.MAX_VALUE;
+            } else {
+                limit = switch (priority) {
+                    case INTERACTIVE -> maxActive;
+                    case NORMAL -> maxActive - reservedInteractive;
+                    case BULK -> maxActive - reservedInteractive - reservedNormal;
+                };
+            }
+            // 预留过多时每个优先级至少保留一个名额，避免永远无法获得
+            limits[priority.ordinal()] = Math.max(1, limit);
+            queues.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * @param timeout 最长等待的纳秒数，小于等于 0 时不等待
+     * @return 是否获得了名额
+     */
+    boolean acquire(Tenant tenant, Priority priority, long timeout) throws InterruptedException {
+        // 没有排队的任务时按租户的并发上限直接获取，不经过锁
+        if (!bounded && waiting.get() == 0 && tryAdmit(tenant)) {
+            return true;
+        }
+        int index = priority.ordinal();
+        lock.lock();
+        if (!bounded) {
+            // 先登记再检查租户的计数，与无锁的归还配合：归还看不到登记时，这里一定能看到归还后的计数
+            waiting.incrementAndGet();
+        }
+        try {
+            // 每次归还后都会立即把名额分给可以获得的排队者，所以还有空余名额时不存在可以获得名额的排队者
+            if (active < limits[index] && tryAdmit(tenant)) {
+                admit(tenant);
+                return true;
+            }
+            if (timeout <= 0) {
+                return false;
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            queues.get(index).computeIfAbsent(tenant, k -> new ArrayDeque<>()).addLast(waiter);
+            try {
+                while (!waiter.admitted && timeout > 0) {
+                    timeout = waiter.condition.awaitNanos(timeout);
+                }
+            } catch (InterruptedException e) {
+                if (waiter.admitted) {
+                    // 被中断前已分到名额，交还给下一个排队的任务
+                    releaseLocked(tenant);
+                } else {
+                    dequeue(index, tenant, waiter);
+                }
+                throw e;
+            }
+            if (!waiter.admitted) {
+                dequeue(index, tenant, waiter);
+            }
+            return waiter.admitted;
+        } finally {
+            if (!bounded) {
+                waiting.decrementAndGet();
+            }
+            lock.unlock();
+        }
+    }
+
+    void release(Tenant tenant) {
+        if (!bounded) {
+            TENANT_ACTIVE.decrementAndGet(tenant);
+            if (waiting.get() == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            releaseLocked(tenant);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 正在排队等待名额的任务数量
+     */
+    int queued() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (Map<Tenant, ArrayDeque<Waiter>> queue : queues) {
+                for (ArrayDeque<Waiter> waiters : queue.values()) {
+                    queued += waiters.size();
+                }
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked(Tenant tenant) {
+        if (bounded) {
+            active--;
+        }
+        TENANT_ACTIVE.decrementAndGet(tenant);
+        dispatch();
+    }
+
+    /**
+     * 从最高优先级开始分配空出的名额，某个优先级还有可以获得名额的任务但已到上限时，更低的优先级上限只会更小，直接结束
+     */
+    private void dispatch() {
+        for (int i = 0; i < queues.size(); i++) {
+            Map<Tenant, ArrayDeque<Waiter>> queue = queues.get(i);
+            Tenant next = null;
+            while (!queue.isEmpty() && (next = next(queue)) != null && active < limits[i]) {
+                if (!tryAdmit(next)) {
+                    // 名额已被并发的无锁获取占用，重新选择
+                    continue;
+                }
+                ArrayDeque<Waiter> waiters = queue.get(next);
+                Waiter waiter = waiters.pollFirst();
+                if (waiters.isEmpty()) {
+                    queue.remove(next);
+                }
+                admit(next);
+                waiter.admitted = true;
+                waiter.condition.signal();
+                next = null;
+            }
+            if (next != null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按租户的并发上限原子地增加其计数
+     *
+     * @return 是否未达到上限
+     */
+    private static boolean tryAdmit(Tenant tenant) {
+        int maxActive = tenant.getQuota().getMaxActive();
+        int current;
+        do {
+            current = tenant.active;
+            if (maxActive > 0 && current >= maxActive) {
+                return false;
+            }
+        } while (!TENANT_ACTIVE.compareAndSet(tenant, current, current + 1));
+        return true;
+    }
+
+    /**
+     * 在锁内记录获得名额：总数和加权公平调度的虚拟时间，租户的计数已由 {@link #tryAdmit} 增加
+     */
+    private void admit(Tenant tenant) {
+        if (bounded) {
+            active++;
+        }
+        double pass = Math.max(tenant.pass, virtualTime);
+        virtualTime = pass;
+        tenant.pass = pass + 1.0 / Math.max(1, tenant.getQuota().getWeight());
+    }
+
+    /**
+     * @return 可以获得名额的租户中虚拟时间最小的一个，没有时返回 null
+     */
+    private Tenant next(Map<Tenant, ArrayDeque<Waiter>> queue) {
+        Tenant next = null;
+        double nextPass = 0;
+        for (Tenant tenant : queue.keySet()) {
+            if (isAdmissible(tenant)) {
+                double pass = Math.max(tenant.pass, virtualTime);
+                if (next == null || pass < nextPass) {
+                    next = tenant;
+                    nextPass = pass;
+                }
+            }
+        }
+        return next;
+    }
+
+    private static boolean isAdmissible(Tenant tenant) {
+        int maxActive = tenant.getQuota().getMaxActive();
+        return maxActive <= 0 || tenant.active < maxActive;
+    }
+
+    private void dequeue(int index, Tenant tenant, Waiter waiter) {
+        ArrayDeque<Waiter> waiters = queues.get(index).get(tenant);
+        if (waiters != null) {
+            waiters.remove(waiter);
+            if (waiters.isEmpty()) {
+                queues.get(index).remove(tenant);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        final Condition condition;
+        boolean admitted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.util.JFields;
+import com.muyuanjin.compiler.util.JUnsafe;
+import com.sun.tools.javac.file.BaseFileManager;
+import com.sun.tools.javac.file.FSInfo;
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.Context;
+import lombok.SneakyThrows;
+
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 池中所有 Context 的 {@link JavacFileManager} 共享的类路径 jar 包。
+ * <p>
+ * 每个 JavacFileManager 默认为类路径上的每个 jar 包打开自己的 zip 文件系统（文件描述符、中央目录索引）并遍历建立包索引，
+ * N 个 Context 就有 N 份。这里在文件管理器第一次应用参数之后把池中共享的 jar 包直接放入其容器表，文件管理器不再自己打开；
+ * 按引用计数管理，最后一个使用它的文件管理器关闭时才关闭 zip 文件系统。
+ * 只共享 jar 包（ArchiveContainer），目录和 jrt 镜像本身没有需要共享的索引；打开方式取决于 multi-release 参数，按参数分别共享。
+ * <p>
+ * ArchiveContainer 是 JavacFileManager 的内部类，由池自己的、只有空 Context 的文件管理器打开，
+ * 共享的 jar 包不会使某个池中 Context 的文件管理器、符号表在其退役后仍然可达
+ */
+final class SharedArchives {
+    private static final Field CONTAINERS = JFields.getField(JavacFileManager.class, "containers");
+    private static final Field MULTI_RELEASE = JFields.getField(BaseFileManager.class, "multiReleaseValue");
+    private static final Class<?> ARCHIVE_CONTAINER = JUnsafe.getClassByName(
+            "com.sun.tools.javac.file.JavacFileManager$ArchiveContainer",
+            false, JavacFileManager.class.getClassLoader(), JavacFileManager.class);
+    private static final Constructor<?> ARCHIVE_CONTAINER_CONSTRUCTOR = archiveContainerConstructor();
+
+    private final FSInfo fsInfo;
+    private final ConcurrentMap<Key, Archive> archives = new ConcurrentHashMap<>();
+    /**
+     * 按 multi-release 参数打开共享 jar 包的文件管理器
+     */
+    private final ConcurrentMap<String, JavacFileManager> owners = new ConcurrentHashMap<>();
+
+    /**
+     * @param fsInfo 池共享的文件信息缓存
+     */
+    SharedArchives(FSInfo fsInfo) {
+        this.fsInfo = fsInfo;
+    }
+
+    /**
+     * 文件管理器第一次应用参数（类路径、multi-release）之后调用一次，把类路径上的 jar 包放入其容器表：
+     * 已共享的直接放入，还没有打开的打开并登记为共享，并发创建的多个 Context 也只打开一份。
+     * 此时文件管理器只被当前线程使用，不需要加锁
+     *
+     * @return 放入的共享 jar 包，文件管理器关闭前交给 {@link #release}
+     */
+    @SneakyThrows
+    List<Object> attach(JavacFileManager fileManager) {
+        Iterable<? extends Path> paths = fileManager.getLocationAsPaths(StandardLocation.CLASS_PATH);
+        if (paths == null) {
+            return List.of();
+        }
+        String multiRelease = (String) MULTI_RELEASE.get(fileManager);
+        Map<Path, Object> containers = containers(fileManager);
+        List<Object> attached = new ArrayList<>();
+        for (Path path : paths) {
+            if (containers.containsKey(path)) {
+                continue;
+            }
+            Key key = new Key(path, multiRelease);
+            Archive archive;
+            // 引用计数已归零的 jar 包正在被关闭，从登记中移除后重新打开
+            while ((archive = archives.computeIfAbsent(key, this::open)) != null && !archive.retain()) {
+                archives.remove(key, archive);
+            }
+            if (archive != null) {
+                containers.put(path, archive.container);
+                attached.add(archive);
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * 文件管理器关闭前调用：从其容器表中移除共享的 jar 包，使 {@link JavacFileManager#close()} 只关闭它独占的，
+     * 没有其他文件管理器使用的共享 jar 包在这里关闭
+     */
+    void release(JavacFileManager fileManager, List<Object> attached) {
+        Map<Path, Object> containers = containers(fileManager);
+        containers.values().removeIf(container -> attached.stream().anyMatch(archive -> ((Archive) archive).container == container));
+        for (Object o : attached) {
+            Archive archive = (Archive) o;
+            if (archive.release()) {
+                archives.remove(archive.key, archive);
+                try {
+                    ((FileSystem) JFields.getValue(archive.container, "fileSystem")).close();
+                } catch (IOException ignore) {
+                    // 与 JavacFileManager#close 一样，关闭失败不影响其他 jar 包
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 当前共享的 jar 包数量
+     */
+    int size() {
+        return archives.size();
+    }
+
+    /**
+     * @return 与文件管理器自己打开时相同的 ArchiveContainer，不是 jar 包（目录、不存在的路径）或无法打开时返回 null，交给文件管理器按原有方式处理
+     */
+    private Archive open(Key key) {
+        if (!Files.isRegularFile(key.path())) {
+            return null;
+        }
+        try {
+            return new Archive(key, ARCHIVE_CONTAINER_CONSTRUCTOR.newInstance(owner(key.multiRelease()), key.path()));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private JavacFileManager owner(String multiRelease) {
+        return owners.computeIfAbsent(Objects.toString(multiRelease, ""), k -> newOwner(multiRelease));
+    }
+
+    @SneakyThrows
+    private JavacFileManager newOwner(String multiRelease) {
+        Context context = new Context();
+        context.put(FSInfo.class, fsInfo);
+        JavacFileManager owner = new JavacFileManager(context, false, null);
+        MULTI_RELEASE.set(owner, multiRelease);
+        return owner;
+    }
+
+    @SneakyThrows
+    private static Constructor<?> archiveContainerConstructor() {
+        // 内部类的构造器第一个参数是外部的 JavacFileManager
+        return JUnsafe.setAccessible(ARCHIVE_CONTAINER.getDeclaredConstructor(JavacFileManager.class, Path.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @SneakyThrows
+    private static Map<Path, Object> containers(JavacFileManager fileManager) {
+        return (Map<Path, Object>) CONTAINERS.get(fileManager);
+    }
+
+    private record Key(Path path, String multiRelease) {
+    }
+
+    private static final class Archive {
+        final Key key;
+        final Object container;
+        /**
+         * 使用它的文件管理器数量，关闭后为 -1
+         */
+        final AtomicInteger references = new AtomicInteger();
+
+        Archive(Key key, Object container) {
+            this.key = key;
+            this.container = container;
+        }
+
+        /**
+         * @return 已被关闭时返回 false
+         */
+        boolean retain() {
+            int r;
+            do {
+                r = references.get();
+                if (r < 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(r, r + 1));
+            return true;
+        }
+
+        /**
+         * @return 最后一个使用者释放时返回 true，由调用者关闭
+         */
+        boolean release() {
+            return references.decrementAndGet() == 0 && references.compareAndSet(0, -1);
+        }
+    }
+}
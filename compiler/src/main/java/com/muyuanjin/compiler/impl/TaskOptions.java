@@ -0,0 +1,125 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.util.JFields;
+import com.muyuanjin.compiler.util.JMethods;
+import com.sun.tools.javac.code.Lint;
+import com.sun.tools.javac.code.Lint.LintCategory;
+import com.sun.tools.javac.code.Preview;
+import com.sun.tools.javac.code.Source;
+import com.sun.tools.javac.comp.Check;
+import com.sun.tools.javac.comp.LambdaToMethod;
+import com.sun.tools.javac.comp.Modules;
+import com.sun.tools.javac.jvm.ClassReader;
+import com.sun.tools.javac.jvm.ClassWriter;
+import com.sun.tools.javac.jvm.Gen;
+import com.sun.tools.javac.main.JavaCompiler;
+import com.sun.tools.javac.main.Option;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.Log;
+import com.sun.tools.javac.util.MandatoryWarningHandler;
+import com.sun.tools.javac.util.Options;
+import lombok.SneakyThrows;
+import lombok.experimental.UtilityClass;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+
+/**
+ * 重置 {@link CompilerProfile#isPerTaskOption(String) 每次任务可以重置的参数}，使只有这类参数不同的编译可以共享同一批 Context。
+ * <p>
+ * javac 的组件在构造时就读取了这些参数，{@link Options} 每次任务都会重新填充，但组件中缓存的值不会，
+ * 所以需要按新的参数重置 Lint、Check/Preview 的 MandatoryWarningHandler、Log、Modules、Gen、LambdaToMethod、ClassWriter、ClassReader 和 JavaCompiler
+ */
+@UtilityClass
+class TaskOptions {
+    private static final Context.Key<Lint> LINT_KEY = JFields.getStaticValue(Lint.class, "lintKey");
+    private static final Context.Key<Check> CHECK_KEY = JFields.getStaticValue(Check.class, "checkKey");
+    private static final Context.Key<Preview> PREVIEW_KEY = JFields.getStaticValue(Preview.class, "previewKey");
+    private static final Context.Key<Gen> GEN_KEY = JFields.getStaticValue(Gen.class, "genKey");
+    private static final Context.Key<ClassWriter> CLASS_WRITER_KEY = JFields.getStaticValue(ClassWriter.class, "classWriterKey");
+    private static final Context.Key<ClassReader> CLASS_READER_KEY = JFields.getStaticValue(ClassReader.class, "classReaderKey");
+    private static final Context.Key<LambdaToMethod> LAMBDA_TO_METHOD_KEY = JFields.getStaticValue(LambdaToMethod.class, "unlambdaKey");
+
+    private static final Field LINT_VALUES = JFields.getField(Lint.class, "values");
+    private static final Field LINT_SUPPRESSED_VALUES = JFields.getField(Lint.class, "suppressedValues");
+    private static final Field CHECK_DEPRECATION_HANDLER = JFields.getField(Check.class, "deprecationHandler");
+    private static final Field CHECK_REMOVAL_HANDLER = JFields.getField(Check.class, "removalHandler");
+    private static final Field CHECK_UNCHECKED_HANDLER = JFields.getField(Check.class, "uncheckedHandler");
+    private static final Field PREVIEW_HANDLER = JFields.getField(Preview.class, "previewHandler");
+    private static final Field GEN_LINE_DEBUG_INFO = JFields.getField(Gen.class, "lineDebugInfo");
+    private static final Field GEN_VAR_DEBUG_INFO = JFields.getField(Gen.class, "varDebugInfo");
+    private static final Field LAMBDA_TO_METHOD_DEBUG_LINES_OR_VARS = JFields.getField(LambdaToMethod.class, "debugLinesOrVars");
+    private static final Field MODULES_LINT_OPTIONS = JFields.getField(Modules.class, "lintOptions");
+    private static final Field CLASS_WRITER_EMIT_SOURCE_FILE = JFields.getField(ClassWriter.class, "emitSourceFile");
+    private static final Field CLASS_READER_LINT_CLASSFILE = JFields.getField(ClassReader.class, "lintClassfile");
+    private static final Field COMPILER_WERROR = JFields.getField(JavaCompiler.class, "werror");
+    private static final MethodHandle LOG_INIT_OPTIONS = JMethods.getMethodHandle(Log.class, "initOptions", Options.class);
+
+    /**
+     * 按 Context 中当前的 {@link Options} 重置已创建的组件中缓存的 lint、警告和调试信息设置，
+     * 必须在新任务的参数处理完之后、编译开始之前调用
+     */
+    @SneakyThrows
+    static void reset(Context context) {
+        Options options = Options.instance(context);
+        Lint lint = context.get(LINT_KEY);
+        if (lint != null) {
+            // 在只包含当前 Options 的临时 Context 中按 javac 的规则重新计算根 Lint，再复制到已有的 Lint 中，
+            // 各个组件持有的都是同一个根 Lint 实例
+            Context scratch = new Context();
+            scratch.put(Options.optionsKey, options);
+            Lint fresh = Lint.instance(scratch);
+            LINT_VALUES.set(lint, LINT_VALUES.get(fresh));
+            LINT_SUPPRESSED_VALUES.set(lint, LINT_SUPPRESSED_VALUES.get(fresh));
+
+            Log log = Log.instance(context);
+            Check check = context.get(CHECK_KEY);
+            if (check != null) {
+                CHECK_DEPRECATION_HANDLER.set(check, new MandatoryWarningHandler(log, null,
+                        lint.isEnabled(LintCategory.DEPRECATION), true, "deprecated", LintCategory.DEPRECATION));
+                CHECK_REMOVAL_HANDLER.set(check, new MandatoryWarningHandler(log, null,
+                        lint.isEnabled(LintCategory.REMOVAL), true, "removal", LintCategory.REMOVAL));
+                CHECK_UNCHECKED_HANDLER.set(check, new MandatoryWarningHandler(log, null,
+                        lint.isEnabled(LintCategory.UNCHECKED), true, "unchecked", LintCategory.UNCHECKED));
+            }
+            Preview preview = context.get(PREVIEW_KEY);
+            if (preview != null) {
+                PREVIEW_HANDLER.set(preview, new MandatoryWarningHandler(log, Source.instance(context),
+                        lint.isEnabled(LintCategory.PREVIEW), true, "preview", LintCategory.PREVIEW));
+            }
+            ClassReader reader = context.get(CLASS_READER_KEY);
+            if (reader != null) {
+                CLASS_READER_LINT_CLASSFILE.setBoolean(reader, lint.isEnabled(LintCategory.CLASSFILE));
+            }
+        }
+        LOG_INIT_OPTIONS.invoke(Log.instance(context), options);
+        Modules modules = context.get(Modules.class);
+        if (modules != null) {
+            MODULES_LINT_OPTIONS.setBoolean(modules,
+                    options.isUnset(Option.XLINT_CUSTOM, "-" + LintCategory.OPTIONS.option));
+        }
+
+        boolean lineDebugInfo = options.isUnset(Option.G_CUSTOM) || options.isSet(Option.G_CUSTOM, "lines");
+        boolean varDebugInfo = options.isUnset(Option.G_CUSTOM)
+                ? options.isSet(Option.G) : options.isSet(Option.G_CUSTOM, "vars");
+        Gen gen = context.get(GEN_KEY);
+        if (gen != null) {
+            GEN_LINE_DEBUG_INFO.setBoolean(gen, lineDebugInfo);
+            GEN_VAR_DEBUG_INFO.setBoolean(gen, varDebugInfo);
+        }
+        LambdaToMethod lambdaToMethod = context.get(LAMBDA_TO_METHOD_KEY);
+        if (lambdaToMethod != null) {
+            // 有调试信息时不合并相同的 lambda 方法
+            LAMBDA_TO_METHOD_DEBUG_LINES_OR_VARS.setBoolean(lambdaToMethod, lineDebugInfo || varDebugInfo);
+        }
+        ClassWriter writer = context.get(CLASS_WRITER_KEY);
+        if (writer != null) {
+            CLASS_WRITER_EMIT_SOURCE_FILE.setBoolean(writer,
+                    options.isUnset(Option.G_CUSTOM) || options.isSet(Option.G_CUSTOM, "source"));
+        }
+        JavaCompiler compiler = JavaCompiler.instance(context);
+        compiler.lineDebugInfo = lineDebugInfo;
+        COMPILER_WERROR.setBoolean(compiler, options.isSet(Option.WERROR));
+    }
+}
@@ -0,0 +1,99 @@
+package com.muyuanjin.compiler.impl;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 共享同一个 {@link JavacTaskPool} 的租户：按 {@link TenantQuota} 加权公平地分配名额、限制并发编译数量和 CPU 时间，并单独统计。
+ * 由 {@link JavacTaskPool#tenant(String)} 创建，同名的租户是同一个实例
+ */
+public final class Tenant {
+    @Getter
+    private final String name;
+    @Getter
+    private volatile TenantQuota quota;
+    /**
+     * 正在进行的编译数量，由 {@link PriorityAdmission} 原子地修改
+     */
+    volatile int active;
+    /**
+     * 加权公平调度的虚拟时间，每获得一次名额前进 1 / weight，排队时虚拟时间最小的租户优先，由 {@link PriorityAdmission} 在其锁内读写
+     */
+    double pass;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder cpuTime = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private volatile long windowStart = System.nanoTime();
+    private final AtomicLong windowCpuTime = new AtomicLong();
+
+    Tenant(String name, TenantQuota quota) {
+        this.name = name;
+        this.quota = quota;
+    }
+
+    void setQuota(TenantQuota quota) {
+        this.quota = quota;
+    }
+
+    /**
+     * @return 当前统计窗口内的 CPU 时间是否已用完
+     */
+    boolean isOverCpuQuota() {
+        long limit = quota.getCpuTime().toNanos();
+        if (limit <= 0) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (now - windowStart >= quota.getCpuWindow().toNanos()) {
+            // 并发翻转窗口时可能丢失少量计数，对配额来说可以接受
+            windowStart = now;
+            windowCpuTime.set(0);
+        }
+        return windowCpuTime.get() >= limit;
+    }
+
+    void recordWait(long nanos) {
+        waitTime.add(nanos);
+    }
+
+    void recordRejection() {
+        rejected.increment();
+    }
+
+    /**
+     * @param cpuNanos 本次编译占用的 CPU 时间，无法测量时为负数
+     */
+    void recordCompletion(long cpuNanos) {
+        completed.increment();
+        if (cpuNanos > 0) {
+            cpuTime.add(cpuNanos);
+            windowCpuTime.addAndGet(cpuNanos);
+        }
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(name, active, completed.sum(), rejected.sum(), cpuTime.sum(), waitTime.sum());
+    }
+
+    @Override
+    public String toString() {
+        return "Tenant[" + name + "]";
+    }
+
+    /**
+     * 租户的统计快照
+     *
+     * @param name      租户名
+     * @param active    正在进行的编译数量
+     * @param completed 结束的编译数量，包括失败和被取消的
+     * @param rejected  因并发上限或 CPU 时间配额被拒绝的编译数量
+     * @param cpuTime   编译占用的 CPU 时间（纳秒）
+     * @param waitTime  排队等待名额的总时间（纳秒）
+     */
+    public record Statistics(String name, int active, long completed, long rejected, long cpuTime, long waitTime) {
+    }
+}
@@ -0,0 +1,38 @@
+package com.muyuanjin.compiler.impl;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * {@link Tenant} 的配额，不可变
+ */
+@Value
+@Builder(toBuilder = true)
+public class TenantQuota {
+    /**
+     * 排队时按权重公平分配名额：各租户获得名额的次数与权重成正比
+     */
+    @Builder.Default
+    int weight = 1;
+    /**
+     * 该租户同时进行的编译数量上限，超出的请求排队等待，小于等于 0 表示不限制
+     */
+    @Builder.Default
+    int maxActive = 0;
+    /**
+     * 每个统计窗口内该租户编译占用的 CPU 时间上限，用完后窗口内的编译请求直接拒绝，为 0 时不限制
+     */
+    @Builder.Default
+    Duration cpuTime = Duration.ZERO;
+    /**
+     * CPU 时间配额的统计窗口
+     */
+    @Builder.Default
+    Duration cpuWindow = Duration.ofMinutes(1);
+
+    public static TenantQuota defaults() {
+        return builder().build();
+    }
+}
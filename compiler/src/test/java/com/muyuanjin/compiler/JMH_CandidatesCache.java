@@ -0,0 +1,101 @@
+package com.muyuanjin.compiler;
+
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings;
+import com.muyuanjin.compiler.impl.NativeJavaCompiler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 对比单次编译内不缓存（0）与缓存接口方法候选（Types#interfaceCandidates）时，编译泛型和 Stream 密集的源码的吞吐量
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JMH_CandidatesCache {
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(JMH_CandidatesCache.class.getSimpleName())
+                .mode(Mode.Throughput)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final String streamSource = """
+            import java.util.*;
+            import java.util.function.*;
+            import java.util.stream.*;
+            public class StreamContainer {
+                interface Named { default String name() { return getClass().getSimpleName(); } }
+                interface Weighted extends Named, Comparable<Weighted> {
+                    int weight();
+                    default int compareTo(Weighted o) { return Integer.compare(weight(), o.weight()); }
+                }
+                record Item(String group, int weight, List<String> tags) implements Weighted {}
+                record Summary<K extends Comparable<K>, V>(K key, V value) implements Comparable<Summary<K, V>> {
+                    public int compareTo(Summary<K, V> o) { return key.compareTo(o.key); }
+                }
+
+                public static <T extends Weighted, K extends Comparable<K>> List<Summary<K, IntSummaryStatistics>> summarize(
+                        Collection<T> items, Function<? super T, ? extends K> classifier) {
+                    return items.stream()
+                            .collect(Collectors.groupingBy(classifier, TreeMap::new, Collectors.summarizingInt(Weighted::weight)))
+                            .entrySet().stream()
+                            .map(e -> new Summary<K, IntSummaryStatistics>(e.getKey(), e.getValue()))
+                            .sorted(Comparator.<Summary<K, IntSummaryStatistics>>naturalOrder().reversed())
+                            .collect(Collectors.toList());
+                }
+
+                public static Map<String, Map<Boolean, List<String>>> tags(List<Item> items) {
+                    return items.stream()
+                            .filter(Predicate.not(item -> item.tags().isEmpty()))
+                            .sorted(Comparator.comparing(Item::group).thenComparing(Comparator.naturalOrder()))
+                            .collect(Collectors.groupingBy(Item::group, LinkedHashMap::new,
+                                    Collectors.partitioningBy(item -> item.weight() % 2 == 0,
+                                            Collectors.flatMapping(item -> item.tags().stream().map(String::trim),
+                                                    Collectors.toList()))));
+                }
+
+                public static Optional<String> heaviest(Stream<? extends Weighted> items) {
+                    return items.max(Comparator.naturalOrder()).map(Named::name);
+                }
+
+                public static <A, B, R> Function<A, Function<B, R>> curry(BiFunction<? super A, ? super B, ? extends R> f) {
+                    return a -> b -> f.apply(a, b);
+                }
+
+                public static int total(List<Item> items) {
+                    BinaryOperator<Integer> sum = Integer::sum;
+                    return items.stream().map(Item::weight).reduce(0, sum)
+                           + curry((Integer x, Integer y) -> x * y).apply(2).apply(3)
+                           + IntStream.range(0, items.size()).boxed().mapToInt(Integer::intValue).sum();
+                }
+            }
+            """;
+
+    @Param({"0", "1024"})
+    public int candidatesCacheSize;
+
+    private NativeJavaCompiler compiler;
+
+    @Setup
+    public void setup() {
+        compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .candidatesCacheSize(candidatesCacheSize)
+                .build());
+    }
+
+    @TearDown
+    public void tearDown() {
+        compiler.getTaskPool().close();
+    }
+
+    @Benchmark
+    public CompilationResult compileStreams() {
+        return compiler.compile("StreamContainer.java", streamSource);
+    }
+}
@@ -0,0 +1,92 @@
+package com.muyuanjin.compiler;
+
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings;
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.ExecutionMode;
+import com.muyuanjin.compiler.impl.NativeJavaCompiler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 对比在调用者线程上编译（CALLER）、卸载到专用编译线程上编译（OFFLOAD）与由独占 Context 的编译线程编译（WORKERS）。
+ * <p>
+ * 请求分别由虚拟线程（VIRTUAL）和平台线程（PLATFORM）发起。虚拟线程需要 JDK 21+，项目在 JDK 17 上构建，
+ * 在 JDK 17 上运行时 VIRTUAL 的组合在 setup 中失败，只有 PLATFORM 的结果，不会把平台线程的结果当作虚拟线程的结果；
+ * 需要虚拟线程的数据时用 JDK 21+ 运行测试类路径
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JMH_ExecutionMode {
+    private static final int BATCH = 64;
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(JMH_ExecutionMode.class.getSimpleName())
+                .mode(Mode.Throughput)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @Param({"CALLER", "OFFLOAD", "WORKERS"})
+    public ExecutionMode mode;
+
+    @Param({"VIRTUAL", "PLATFORM"})
+    public String requestThreads;
+
+    private NativeJavaCompiler compiler;
+    private ExecutorService requests;
+
+    @Setup
+    public void setup() {
+        compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .executionMode(mode)
+                .build());
+        requests = "VIRTUAL".equals(requestThreads) ? newVirtualThreadExecutor() : Executors.newCachedThreadPool();
+    }
+
+    @TearDown
+    public void tearDown() {
+        requests.shutdown();
+        compiler.getTaskPool().close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void compileBatch() throws Exception {
+        List<Future<CompilationResult>> futures = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            futures.add(requests.submit(() -> compiler.compile("LambdaContainer.java", lambdaSource)));
+        }
+        for (Future<CompilationResult> future : futures) {
+            future.get();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+, running on " + Runtime.version(), e);
+        }
+    }
+}
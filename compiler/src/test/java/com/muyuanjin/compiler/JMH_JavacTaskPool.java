@@ -0,0 +1,53 @@
+package com.muyuanjin.compiler;
+
+import com.muyuanjin.compiler.impl.NativeJavaCompiler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JavacTaskPool 并发借还的吞吐量，线程数从 1 增加到 64，观察吞吐量是否随线程数增长
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JMH_JavacTaskPool {
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREADS) {
+            Options opt = new OptionsBuilder()
+                    .include(JMH_JavacTaskPool.class.getSimpleName())
+                    .mode(Mode.Throughput)
+                    .threads(threads)
+                    .forks(1)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    private NativeJavaCompiler compiler;
+
+    @Setup
+    public void setup() {
+        // 池容量不小于最大线程数，避免测到的是淘汰与新建 Context 的开销
+        compiler = new NativeJavaCompiler(THREADS[THREADS.length - 1]);
+    }
+
+    @Benchmark
+    public CompilationResult concurrentCompile() {
+        return compiler.compile("LambdaContainer.java", lambdaSource);
+    }
+}
@@ -10,6 +10,12 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 
 class JavaCompilerTest {
@@ -35,6 +41,67 @@ class JavaCompilerTest {
                                 invokeStatic(compile.loadSingle(), "getLambda").apply(1, 2));
     }
 
+    @Test
+    public void concurrentNativeJavaCompiler() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompilationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executor.submit(() -> compiler.compile("LambdaContainer.java", lambdaSource)));
+            }
+            for (Future<CompilationResult> future : futures) {
+                Assertions.assertEquals(3,
+                        JMethods.<BiFunction<Integer, Integer, Integer>>
+                                invokeStatic(future.get().loadSingle(), "getLambda").apply(1, 2));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void nativeJavaCompilerProfile() {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        CompilerProfile profile = CompilerProfile.of(new JavaCompilerSettings());
+        Assertions.assertEquals(profile, CompilerProfile.of(new JavaCompilerSettings()));
+        // 相等的 profile 共享同一个参数列表实例
+        Assertions.assertSame(profile.getOptions(), CompilerProfile.of(new JavaCompilerSettings()).getOptions());
+
+        CompilationResult compile = compiler.compile("LambdaContainer.java", lambdaSource, profile);
+        Assertions.assertEquals(3,
+                JMethods.<BiFunction<Integer, Integer, Integer>>
+                        invokeStatic(compile.loadSingle(), "getLambda").apply(1, 2));
+        // 按 settings 编译与按等价的 profile 编译复用同一个 Context
+        compiler.compile("LambdaContainer.java", lambdaSource);
+        Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().created());
+        Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().reused());
+        compiler.getTaskPool().close();
+    }
+
+    @Test
+    public void nativeJavaCompilerSettingsProfile() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        try {
+            // 按编译器自身设置编译时复用缓存的 profile，原地修改设置后按新的设置编译
+            Assertions.assertFalse(containsLocalVariableTable(compiler.compile("LambdaContainer.java", lambdaSource)));
+            compiler.getSettings().setDebug(true);
+            Assertions.assertTrue(containsLocalVariableTable(compiler.compile("LambdaContainer.java", lambdaSource)));
+            compiler.getSettings().setDebug(false);
+            Assertions.assertFalse(containsLocalVariableTable(compiler.compile("LambdaContainer.java", lambdaSource)));
+            // 修改列表类型的设置同样生效
+            compiler.getSettings().getJavacOptions().add("-g");
+            Assertions.assertTrue(containsLocalVariableTable(compiler.compile("LambdaContainer.java", lambdaSource)));
+            Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().created());
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    private static boolean containsLocalVariableTable(CompilationResult result) {
+        return new String(result.classes().get(0).bytes(), StandardCharsets.ISO_8859_1).contains("LocalVariableTable");
+    }
+
     @Test
     public void eclipseJavaCompiler() {
         CompilationResult compile = new EclipseJavaCompiler().compile("LambdaContainer.java", lambdaSource);
@@ -0,0 +1,245 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilationResult;
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.Priority;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link JavacTaskPool} 的准入控制：优先级、租户配额、编译预算和等待名额的超时
+ */
+class JavacTaskPoolAdmissionTest {
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @Test
+    public void priority() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxActive(2)
+                .reservedInteractive(1)
+                .build());
+        NativeJavaCompiler interactive = compiler.withPriority(Priority.INTERACTIVE);
+        NativeJavaCompiler bulk = compiler.withPriority(Priority.BULK);
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // 占用唯一一个非预留的名额
+            Future<Boolean> blocking = executor.submit(() -> compiler.getTaskPool().getTask(null, null,
+                    CompilerProfile.of(compiler.getSettings()), null, units, getClass().getClassLoader(), (ctx, task) -> {
+                        started.countDown();
+                        Assertions.assertDoesNotThrow(() -> release.await());
+                        return task.call();
+                    }));
+            started.await();
+            // 批量编译只能排队，交互式编译使用预留的名额立即完成
+            Future<CompilationResult> queued = executor.submit(() -> bulk.compile("LambdaContainer.java", lambdaSource));
+            Assertions.assertTrue(interactive.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertFalse(queued.isDone());
+
+            release.countDown();
+            Assertions.assertTrue(blocking.get());
+            Assertions.assertTrue(queued.get().isSuccessful());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            compiler.getTaskPool().close();
+        }
+    }
+
+    @Test
+    public void tenants() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxActive(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        Tenant a = pool.tenant("a");
+        Tenant b = pool.tenant("b");
+        CompilerProfile profile = CompilerProfile.of(compiler.getSettings());
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        try {
+            // 默认租户占用唯一的名额，租户 a 先排队三个任务，租户 b 后排队一个任务
+            Thread blocking = new Thread(() -> pool.getTask(null, null, profile, null, units, getClass().getClassLoader(), (ctx, task) -> {
+                started.countDown();
+                Assertions.assertDoesNotThrow(() -> release.await());
+                return task.call();
+            }));
+            blocking.start();
+            started.await();
+            for (Tenant tenant : List.of(a, a, a, b)) {
+                Thread thread = new Thread(() -> pool.getTask(null, null, profile, null, units, getClass().getClassLoader(), tenant, Priority.NORMAL, null,
+                        (ctx, task) -> order.add(tenant.getName()) && task.call()));
+                thread.start();
+                threads.add(thread);
+                awaitQueued(pool, threads.size());
+            }
+            release.countDown();
+            blocking.join();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // 公平分配：b 不会排在 a 的所有任务之后
+            Assertions.assertEquals(4, order.size());
+            Assertions.assertTrue(order.indexOf("b") <= 1, order.toString());
+            Assertions.assertEquals(3, a.getStatistics().completed());
+            Assertions.assertEquals(1, b.getStatistics().completed());
+            Assertions.assertTrue(b.getStatistics().cpuTime() > 0);
+
+            // CPU 时间配额用完后拒绝
+            NativeJavaCompiler limited = compiler.forTenant("limited");
+            pool.tenant("limited", TenantQuota.builder().cpuTime(Duration.ofNanos(1)).build());
+            Assertions.assertTrue(limited.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertThrows(RejectedExecutionException.class, () -> limited.compile("LambdaContainer.java", lambdaSource));
+            Assertions.assertEquals(1, pool.tenant("limited").getStatistics().rejected());
+        } finally {
+            release.countDown();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void tenantMaxActiveUnbounded() throws Exception {
+        // 不限制总数时租户的并发上限不经过锁检查，超出的编译仍然排队到名额归还
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        JavacTaskPool pool = compiler.getTaskPool();
+        Tenant capped = pool.tenant("capped", TenantQuota.builder().maxActive(1).build());
+        CompilerProfile profile = CompilerProfile.of(compiler.getSettings());
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = new Thread(() -> pool.getTask(null, null, profile, null, units, getClass().getClassLoader(), capped, Priority.NORMAL, null,
+                (ctx, task) -> {
+                    started.countDown();
+                    Assertions.assertDoesNotThrow(() -> release.await());
+                    return task.call();
+                }));
+        try {
+            blocking.start();
+            started.await();
+            FutureTask<CompilationResult> queued = new FutureTask<>(() -> compiler.forTenant("capped").compile("LambdaContainer.java", lambdaSource));
+            Thread waiting = new Thread(queued);
+            waiting.start();
+            awaitQueued(pool, 1);
+            // 其他租户不受影响
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertFalse(queued.isDone());
+            Assertions.assertEquals(1, capped.getStatistics().active());
+
+            release.countDown();
+            Assertions.assertTrue(queued.get().isSuccessful());
+            blocking.join();
+            Assertions.assertEquals(0, capped.getStatistics().active());
+            Assertions.assertEquals(2, capped.getStatistics().completed());
+        } finally {
+            release.countDown();
+            pool.close();
+        }
+    }
+
+    /**
+     * 等待准入控制中有 count 个排队的编译，不依赖线程状态和等待时间
+     */
+    private static void awaitQueued(JavacTaskPool pool, int count) {
+        while (pool.queued() < count) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Test
+    public void budget() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxActive(1)
+                .maxSourceLength(lambdaSource.length() - 1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        try {
+            Assertions.assertThrows(RejectedExecutionException.class,
+                    () -> compiler.compile("LambdaContainer.java", lambdaSource));
+            // 直接使用池的调用者同样受预算限制
+            List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+            Assertions.assertThrows(RejectedExecutionException.class, () -> pool.getTask(null, null,
+                    CompilerProfile.of(compiler.getSettings()), null, units, getClass().getClassLoader(), (ctx, task) -> task.call()));
+            Assertions.assertEquals(2, pool.getStatistics().rejected());
+            Assertions.assertEquals(0, pool.getStatistics().created());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void maxSourceFiles() {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxSourceFiles(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        Map<String, String> sources = Map.of(
+                "First.java", "public class First {}",
+                "Second.java", "public class Second {}");
+        try {
+            // 超出预算的请求在借出 Context 之前就被拒绝
+            Assertions.assertThrows(RejectedExecutionException.class, () -> compiler.compile(sources));
+            Assertions.assertEquals(0, pool.getStatistics().created());
+            // 按文件计数：一个文件中定义多个类不受限制
+            Assertions.assertEquals(2, compiler.compile("First.java", "public class First {} class Second {}").classes().size());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void acquireTimeout() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxActive(1)
+                .acquireTimeout(Duration.ofMillis(50))
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = new Thread(() -> pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                getClass().getClassLoader(), (ctx, task) -> {
+                    started.countDown();
+                    Assertions.assertDoesNotThrow(() -> release.await());
+                    return task.call();
+                }));
+        try {
+            blocking.start();
+            started.await();
+            // 唯一的名额被占用，等待超过 acquireTimeout 后拒绝
+            Assertions.assertThrows(RejectedExecutionException.class, () -> compiler.compile("LambdaContainer.java", lambdaSource));
+            Assertions.assertEquals(1, pool.getStatistics().rejected());
+            release.countDown();
+            blocking.join();
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+        } finally {
+            release.countDown();
+            blocking.join();
+            pool.close();
+        }
+    }
+}
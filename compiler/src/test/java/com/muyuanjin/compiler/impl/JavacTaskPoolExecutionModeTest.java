@@ -0,0 +1,134 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilationResult;
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.util.JMethods;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+/**
+ * {@link JavacTaskPoolSettings.ExecutionMode} 的各种执行方式
+ */
+class JavacTaskPoolExecutionModeTest {
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @Test
+    public void workers() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .executionMode(JavacTaskPoolSettings.ExecutionMode.WORKERS)
+                .offloadThreads(2)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompilationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> compiler.compile("LambdaContainer.java", lambdaSource)));
+            }
+            for (Future<CompilationResult> future : futures) {
+                Assertions.assertEquals(3,
+                        JMethods.<BiFunction<Integer, Integer, Integer>>
+                                invokeStatic(future.get().loadSingle(), "getLambda").apply(1, 2));
+            }
+            // 每个编译线程最多新建一个 Context，其余编译都复用线程自己的 Context
+            JavacTaskPool.Statistics statistics = pool.getStatistics();
+            Assertions.assertTrue(statistics.created() <= 2);
+            Assertions.assertEquals(32, statistics.created() + statistics.reused());
+            // 编译线程独占的 Context 计入空闲总数
+            Assertions.assertEquals(statistics.created(), statistics.idle());
+
+            // 内存紧张时与分片中的 Context 一起关闭，之后的编译重新创建
+            pool.shrink();
+            Assertions.assertEquals(0, pool.getStatistics().idle());
+            Assertions.assertNotNull(compiler.compile("LambdaContainer.java", lambdaSource).loadSingle());
+            Assertions.assertEquals(1, pool.getStatistics().idle());
+        } finally {
+            executor.shutdown();
+            pool.close();
+        }
+        Assertions.assertEquals(0, pool.getStatistics().idle());
+    }
+
+    @Test
+    public void offload() {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .executionMode(JavacTaskPoolSettings.ExecutionMode.OFFLOAD)
+                .offloadThreads(2)
+                .build());
+        try {
+            CompilationResult compile = compiler.compile("LambdaContainer.java", lambdaSource);
+            Assertions.assertEquals(3,
+                    JMethods.<BiFunction<Integer, Integer, Integer>>
+                            invokeStatic(compile.loadSingle(), "getLambda").apply(1, 2));
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    @Test
+    public void offloadInterrupted() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .executionMode(JavacTaskPoolSettings.ExecutionMode.OFFLOAD)
+                .offloadThreads(2)
+                .maxActive(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units, getClass().getClassLoader(), (ctx, task) -> {
+                    started.countDown();
+                    Assertions.assertDoesNotThrow(() -> release.await());
+                    return task.call();
+                });
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        try {
+            caller.start();
+            started.await();
+            caller.interrupt();
+            caller.join();
+            Assertions.assertInstanceOf(InterruptedException.class, failure.get());
+
+            // 调用者被中断后编译仍在编译线程上运行，继续占用唯一的名额，之后的编译只能排队
+            Assertions.assertEquals(1, pool.getStatistics().active());
+            FutureTask<CompilationResult> queued = new FutureTask<>(() -> compiler.compile("LambdaContainer.java", lambdaSource));
+            Thread waiting = new Thread(queued);
+            waiting.start();
+            while (pool.queued() < 1) {
+                Thread.onSpinWait();
+            }
+            Assertions.assertFalse(queued.isDone());
+
+            release.countDown();
+            Assertions.assertTrue(queued.get().isSuccessful());
+            Assertions.assertEquals(0, pool.getStatistics().active());
+        } finally {
+            release.countDown();
+            pool.close();
+        }
+    }
+}
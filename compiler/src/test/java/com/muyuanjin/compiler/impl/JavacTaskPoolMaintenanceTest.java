@@ -0,0 +1,205 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.util.JModules;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.JavaFileObject;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * {@link JavacTaskPool} 的后台维护：空闲清理、补充、预热、退役、内存紧张时收缩和自适应容量。
+ * 后台任务在触发它的线程上执行完（{@code Runnable::run}），周期性的任务由测试直接调用，不依赖调度和等待
+ */
+class JavacTaskPoolMaintenanceTest {
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @BeforeAll
+    public static void setup() {
+        JModules.makeSureExported();
+    }
+
+    @Test
+    public void idleEviction() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder()
+                .idleTimeout(Duration.ofMinutes(1))
+                .janitorInterval(Duration.ofHours(1))
+                .build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            long now = System.currentTimeMillis();
+            // 未超过 idleTimeout 的 Context 保留
+            pool.evictIdle(now);
+            Assertions.assertEquals(1, pool.getStatistics().idle());
+            // 空闲超过 idleTimeout 后由后台清理关闭
+            pool.evictIdle(now + Duration.ofMinutes(2).toMillis());
+            Assertions.assertEquals(0, pool.getStatistics().idle());
+            Assertions.assertEquals(1, pool.getStatistics().removed());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void heapPressure() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder().maxPoolSize(4).build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            compiler.compile("LambdaContainer.java", lambdaSource, new URLClassLoader(new URL[0], getClass().getClassLoader()));
+            Assertions.assertEquals(2, pool.getStatistics().idle());
+            Assertions.assertTrue(MemoryFileManager.cachedFileLists() > 0);
+
+            // 内存紧张时关闭所有空闲的 Context 并清空文件管理器的静态缓存
+            pool.onHeapPressure(1);
+            Assertions.assertEquals(0, pool.getStatistics().idle());
+            Assertions.assertEquals(2, pool.getStatistics().removed());
+            Assertions.assertEquals(1, pool.getStatistics().heapPressure());
+            Assertions.assertEquals(0, MemoryFileManager.cachedFileLists());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void replenish() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder()
+                .maxPoolSize(4)
+                .minIdle(2)
+                .build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            // 借出唯一的 Context 时空闲数低于 minIdle，补充在借出时执行完，归还后共有 3 个
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            Assertions.assertEquals(3, pool.getStatistics().idle());
+            Assertions.assertEquals(2, pool.getStatistics().replenished());
+            Assertions.assertEquals(3, pool.getStatistics().created());
+
+            // 空闲数不低于 minIdle 时后台清理不再补充
+            pool.maintain();
+            Assertions.assertEquals(2, pool.getStatistics().replenished());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void templates() throws Exception {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder()
+                .templates(true)
+                .build(), Runnable::run);
+        NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("LambdaContainer.java", lambdaSource));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread blocking = new Thread(() -> pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                getClass().getClassLoader(), (ctx, task) -> {
+                    started.countDown();
+                    Assertions.assertDoesNotThrow(() -> release.await());
+                    return task.call();
+                }));
+        try {
+            // 第一次编译新建 Context，同时在后台预热一个放入分片
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertEquals(2, pool.getStatistics().created());
+            Assertions.assertEquals(1, pool.getStatistics().replenished());
+            Assertions.assertEquals(2, pool.getStatistics().idle());
+
+            // 一个空闲 Context 被占用时，并发的编译借用预热好的另一个，不再新建
+            blocking.start();
+            started.await();
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertEquals(2, pool.getStatistics().created());
+            Assertions.assertEquals(2, pool.getStatistics().reused());
+        } finally {
+            release.countDown();
+            blocking.join();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void warmUp(@TempDir Path dir) {
+        JavacTaskPool recorderPool = new JavacTaskPool(2);
+        JavacTaskPool pool = new JavacTaskPool(2);
+        try {
+            NativeJavaCompiler recorder = new NativeJavaCompiler(recorderPool);
+            recorderPool.recordCompletions(true);
+            recorder.compile("LambdaContainer.java", lambdaSource);
+            Assertions.assertTrue(recorderPool.getRecordedCompletions().contains("java.util.function.BiFunction"));
+            Path profile = dir.resolve("completions.txt");
+            recorderPool.saveCompletionProfile(profile);
+
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            pool.loadCompletionProfile(profile);
+            compiler.warmUp(2);
+            Assertions.assertEquals(2, pool.getStatistics().idle());
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            Assertions.assertEquals(1, pool.getStatistics().reused());
+        } finally {
+            recorderPool.close();
+            pool.close();
+        }
+    }
+
+    @Test
+    public void retirement() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder()
+                .maxUses(2)
+                .build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            for (int i = 0; i < 4; i++) {
+                compiler.compile("LambdaContainer.java", lambdaSource);
+            }
+            // 退役后补充的替代者预热时已使用一次，之后每次编译都使它退役并再次补充
+            Assertions.assertEquals(3, pool.getStatistics().retired());
+            Assertions.assertEquals(3, pool.getStatistics().replenished());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void adaptive() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder()
+                .maxPoolSize(8)
+                .adaptive(true)
+                .adaptiveWindow(Duration.ofHours(1))
+                .build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            Assertions.assertTrue(pool.getStatistics().footprint() > 0);
+            // 不等待统计窗口，直接结束窗口：有未命中的窗口不缩容，之后每个无流量的窗口容量减半
+            pool.resize();
+            int capacity = pool.getStatistics().capacity();
+            Assertions.assertTrue(capacity > 1);
+            pool.resize();
+            Assertions.assertEquals(capacity / 2, pool.getStatistics().capacity());
+            for (int i = 0; i < 3; i++) {
+                pool.resize();
+            }
+            Assertions.assertEquals(1, pool.getStatistics().capacity());
+            Assertions.assertEquals(1, pool.getStatistics().idle());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.JavaCompilerSettings;
+import com.muyuanjin.compiler.util.JModules;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * {@link JavacTaskPool} 按类加载器和编译参数划分 Context。
+ * 后台任务在触发它的线程上执行完，类加载器被回收的情形用显式移除代替，不依赖 GC 的时机
+ */
+class JavacTaskPoolPartitionTest {
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @BeforeAll
+    public static void setup() {
+        JModules.makeSureExported();
+    }
+
+    @Test
+    public void profileShard() {
+        CompilerProfile profile = CompilerProfile.of(new JavaCompilerSettings());
+        ClassLoader loader = getClass().getClassLoader();
+        try (JavacTaskPool pool = new JavacTaskPool(4); JavacTaskPool other = new JavacTaskPool(4)) {
+            JavacTaskPool.Shard shard = pool.shard(profile, loader);
+            // 同一个 profile 和类加载器直接使用记住的分片，与按参数列表查找的结果相同
+            Assertions.assertSame(shard, pool.shard(profile, loader));
+            Assertions.assertSame(shard, pool.shard(CompilerProfile.of(new JavaCompilerSettings()), loader));
+
+            // 换一个类加载器时重新解析，不影响原类加载器的分片
+            ClassLoader plugin = new URLClassLoader(new URL[0], loader);
+            Assertions.assertNotSame(shard, pool.shard(profile, plugin));
+            Assertions.assertSame(shard, pool.shard(profile, loader));
+
+            // 每个池各自记住分片，同一个 profile 在两个池上交替使用互不影响
+            Assertions.assertNotSame(shard, other.shard(profile, loader));
+            Assertions.assertSame(shard, pool.shard(profile, loader));
+        }
+    }
+
+    @Test
+    public void classLoaderPartition() {
+        JavacTaskPool pool = new JavacTaskPool(JavacTaskPoolSettings.builder().maxPoolSize(4).build(), Runnable::run);
+        try {
+            NativeJavaCompiler compiler = new NativeJavaCompiler(pool);
+            ClassLoader plugin = new URLClassLoader(new URL[0], getClass().getClassLoader());
+            compiler.compile("LambdaContainer.java", lambdaSource, plugin);
+            compiler.compile("LambdaContainer.java", lambdaSource);
+            // 不同类加载器的编译不共享 Context
+            Assertions.assertEquals(2, pool.getStatistics().idle());
+            Assertions.assertEquals(2, pool.getStatistics().created());
+            CompilerProfile profile = CompilerProfile.of(compiler.getSettings());
+            JavacTaskPool.Shard shard = pool.shard(profile, plugin);
+            Assertions.assertNotSame(shard, pool.shard(profile, getClass().getClassLoader()));
+            Assertions.assertEquals(1, shard.size.get());
+
+            // 类加载器被移除（与被回收时相同）后，其分片中的 Context 随之关闭，之后的编译使用新的分片
+            pool.invalidate(plugin);
+            Assertions.assertFalse(shard.isAlive());
+            Assertions.assertEquals(1, pool.getStatistics().idle());
+            Assertions.assertEquals(1, pool.getStatistics().removed());
+            Assertions.assertNotSame(shard, pool.shard(profile, plugin));
+            compiler.compile("LambdaContainer.java", lambdaSource, plugin);
+            Assertions.assertEquals(3, pool.getStatistics().created());
+            Assertions.assertEquals(2, pool.getStatistics().idle());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CancellationToken;
+import com.muyuanjin.compiler.CompilationResult;
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.JavaCompilerSettings;
+import com.muyuanjin.compiler.impl.JavacTaskPoolSettings.Priority;
+import com.muyuanjin.compiler.util.JFields;
+import com.muyuanjin.compiler.util.JMethods;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.code.Scope;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Types;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 复用同一个 Context 的编译之间互不影响：每次编译的参数、取消、污染的修复与隔离，以及编译结束后对符号表的清理
+ */
+class JavacTaskPoolReuseTest {
+    private static final String lambdaSource = """
+            import java.util.function.BiFunction;
+            public class LambdaContainer {
+                public static BiFunction<Integer, Integer, Integer> getLambda() {
+                    return (x, y) -> x + y;
+                }
+            }
+            """;
+
+    @Test
+    public void perTaskOptions() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        try {
+            JavaCompilerSettings plain = new JavaCompilerSettings();
+            JavaCompilerSettings verbose = new JavaCompilerSettings();
+            verbose.setDeprecations(true);
+            verbose.setWarnings(true);
+
+            // 同一个 Context 上切换 -deprecation -Xlint:all，只有开启时才报告弃用警告
+            Assertions.assertEquals(0, deprecationWarnings(compiler, plain));
+            Assertions.assertEquals(1, deprecationWarnings(compiler, verbose));
+            Assertions.assertEquals(0, deprecationWarnings(compiler, plain));
+
+            // -g 生成局部变量表，不带 -g 时不生成
+            JavaCompilerSettings debug = new JavaCompilerSettings();
+            debug.setDebug(true);
+            Assertions.assertTrue(containsLocalVariableTable(compiler.compile(Map.of("LambdaContainer.java", lambdaSource), getClass().getClassLoader(), debug)));
+            Assertions.assertFalse(containsLocalVariableTable(compiler.compile(Map.of("LambdaContainer.java", lambdaSource), getClass().getClassLoader(), plain)));
+
+            Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().created());
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    private static long deprecationWarnings(NativeJavaCompiler compiler, JavaCompilerSettings settings) throws Exception {
+        String source = """
+                public class Deprecated {
+                    public static java.util.Date date() {
+                        return new java.util.Date(2020, 1, 1);
+                    }
+                }
+                """;
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("Deprecated.java", source));
+        boolean success = compiler.getTaskPool().getTask(diagnostics, null, CompilerProfile.of(settings), null, units,
+                JavacTaskPoolReuseTest.class.getClassLoader(), (ctx, task) -> task.call());
+        Assertions.assertTrue(success);
+        return diagnostics.getDiagnostics().stream().filter(d -> d.getKind() == Diagnostic.Kind.MANDATORY_WARNING).count();
+    }
+
+    private static boolean containsLocalVariableTable(CompilationResult result) {
+        return new String(result.classes().get(0).bytes(), StandardCharsets.ISO_8859_1).contains("LocalVariableTable");
+    }
+
+    @Test
+    public void perTaskLambdaDeduplication() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        try {
+            JavaCompilerSettings none = new JavaCompilerSettings();
+            none.setJavacOptions(List.of("-g:none"));
+            JavaCompilerSettings debug = new JavaCompilerSettings();
+            debug.setDebug(true);
+
+            // 没有调试信息时合并相同的 lambda 方法，有调试信息时不合并；同一个 Context 上切换 -g:none 和 -g
+            Assertions.assertEquals(1, lambdaMethods(compiler, none));
+            Assertions.assertEquals(2, lambdaMethods(compiler, debug));
+            Assertions.assertEquals(1, lambdaMethods(compiler, none));
+            Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().created());
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    private static int lambdaMethods(NativeJavaCompiler compiler, JavaCompilerSettings settings) {
+        String source = """
+                public class Lambdas {
+                    public static Runnable[] lambdas() {
+                        return new Runnable[]{() -> System.out.println("lambda"), () -> System.out.println("lambda")};
+                    }
+                }
+                """;
+        CompilationResult result = compiler.compile(Map.of("Lambdas.java", source), JavacTaskPoolReuseTest.class.getClassLoader(), settings);
+        Assertions.assertTrue(result.isSuccessful());
+        String bytes = new String(result.classes().get(0).bytes(), StandardCharsets.ISO_8859_1);
+        return bytes.contains("lambda$lambdas$1") ? 2 : bytes.contains("lambda$lambdas$0") ? 1 : 0;
+    }
+
+    @Test
+    public void cancellation() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        try {
+            CompilerProfile profile = CompilerProfile.of(compiler.getSettings());
+            ClassLoader loader = JavacTaskPoolReuseTest.class.getClassLoader();
+            Map<String, String> sources = Map.of(
+                    "First.java", "public class First { int value() { return 1; } }",
+                    "Second.java", "public class Second { int value() { return new First().value(); } }");
+
+            // 开始前已取消：不借出 Context
+            CancellationToken cancelled = new CancellationToken();
+            cancelled.cancel();
+            Assertions.assertFalse(new CompilationResult(List.of(), List.of(), List.of()).cancelled());
+            CompilationResult result = compiler.compile(sources, loader, profile, cancelled);
+            Assertions.assertTrue(result.cancelled());
+            Assertions.assertFalse(result.isSuccessful());
+            Assertions.assertEquals(0, compiler.getTaskPool().getStatistics().created());
+            Assertions.assertTrue(compiler.compile(sources, loader, profile, Duration.ZERO).cancelled());
+
+            // 编译第一个类后取消：跳过之后的阶段，在分析第二个类之前中止，Context 清理后归还
+            List<JavaFileObject> units = new ArrayList<>();
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                units.add(new MemoryInputJavaFileObject(entry.getKey(), entry.getValue()));
+            }
+            CancellationToken token = new CancellationToken();
+            Assertions.assertThrows(CancellationException.class, () -> compiler.getTaskPool().getTask(null, null, profile,
+                    null, units, loader, null, Priority.NORMAL, token, (ctx, task) -> {
+                        task.addTaskListener(new TaskListener() {
+                            @Override
+                            public void finished(TaskEvent e) {
+                                if (e.getKind() == TaskEvent.Kind.ANALYZE) {
+                                    token.cancel();
+                                }
+                            }
+                        });
+                        return task.call();
+                    }));
+            JavacTaskPool.Statistics statistics = compiler.getTaskPool().getStatistics();
+            Assertions.assertEquals(3, statistics.cancelled());
+            Assertions.assertEquals(0, statistics.polluted());
+            Assertions.assertEquals(1, statistics.idle());
+
+            // 同一个 Context 可以重新编译相同的类
+            result = compiler.compile(sources, loader, profile);
+            Assertions.assertTrue(result.isSuccessful());
+            Assertions.assertEquals(2, result.classes().size());
+            Assertions.assertEquals(1, compiler.getTaskPool().getStatistics().created());
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    @Test
+    public void uncompleteColdClasses() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxPoolSize(1)
+                .maxClasspathClasses(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        // 用到类路径上的多个顶层类和成员类（Policy.Eviction）
+        String source = """
+                import com.github.benmanes.caffeine.cache.Caffeine;
+                import com.github.benmanes.caffeine.cache.Policy;
+                import java.util.Optional;
+                public class ColdProbe {
+                    public static boolean bounded() {
+                        Optional<Policy.Eviction<String, String>> eviction =
+                                Caffeine.newBuilder().maximumSize(1).<String, String>build().policy().eviction();
+                        return eviction.isPresent();
+                    }
+                }
+                """;
+        try {
+            Assertions.assertTrue(compiler.compile("ColdProbe.java", source).isSuccessful());
+            Assertions.assertTrue(pool.getStatistics().uncompleted() > 0);
+
+            // 还原的类在同一个 Context 中重新补全，修饰符、泛型签名和成员类与第一次补全时一致
+            CompilationResult result = compiler.compile("ColdProbe.java", source);
+            Assertions.assertTrue(result.isSuccessful(), result.errors().toString());
+            Assertions.assertEquals(true, JMethods.invokeStatic(result.loadSingle(), "bounded"));
+            Assertions.assertEquals(1, pool.getStatistics().created());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void scopeListeners() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxPoolSize(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        String source = """
+                public class ListenerProbe extends java.util.AbstractList<String> {
+                    public String get(int index) { return "a"; }
+                    public int size() { return 1; }
+                }
+                """;
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("ListenerProbe.java", source));
+        try {
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertTrue(compiler.compile("ListenerProbe.java", source).isSuccessful());
+            }
+            // 之前的编译中成员闭包在 JDK 类的成员作用域上注册的监听器都已移除，不依赖 GC
+            boolean success = pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                    getClass().getClassLoader(), (ctx, task) -> {
+                        Assertions.assertEquals(1, pool.getStatistics().created());
+                        Symtab symtab = Symtab.instance(ctx);
+                        for (Symbol type : List.of(symtab.objectType.tsym, symtab.iterableType.tsym)) {
+                            Object listenerList = JFields.getVarHandle(Scope.class, "listeners").get(type.members());
+                            com.sun.tools.javac.util.List<?> listeners = JFields.getValue(listenerList, "listeners");
+                            Assertions.assertTrue(listeners.isEmpty(), type + " " + listeners.size());
+                        }
+                        return task.call();
+                    });
+            Assertions.assertTrue(success);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void purgeDefinedClasses() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxPoolSize(1)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        // 匿名类不在符号表中，清理其输出时按包清理；包中类路径上的类不属于本次编译，不应被清理
+        String source = """
+                package com.github.benmanes.caffeine.cache;
+                public class AnonymousProbe {
+                    public static Object build() {
+                        return new java.util.function.Supplier<Cache<String, String>>() {
+                            public Cache<String, String> get() {
+                                return Caffeine.newBuilder().build();
+                            }
+                        }.get();
+                    }
+                }
+                """;
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("AnonymousProbe.java", source));
+        Object[] caffeine = new Object[2];
+        try {
+            for (int i = 0; i < 2; i++) {
+                int round = i;
+                boolean success = pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                        getClass().getClassLoader(), (ctx, task) -> {
+                            boolean result = task.call();
+                            Name name = Names.instance(ctx).fromString("com.github.benmanes.caffeine.cache.Caffeine");
+                            caffeine[round] = Symtab.instance(ctx).getClassesForName(name).iterator().next();
+                            return result;
+                        });
+                Assertions.assertTrue(success);
+            }
+            Assertions.assertEquals(1, pool.getStatistics().created());
+            Assertions.assertNotNull(caffeine[0]);
+            Assertions.assertSame(caffeine[0], caffeine[1]);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void candidatesCache() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .maxPoolSize(1)
+                .candidatesCacheSize(4)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        String source = """
+                import java.util.*;
+                import java.util.stream.*;
+                public class CandidatesProbe {
+                    interface Named { default String name() { return "named"; } }
+                    interface Labeled extends Named { default String label() { return name(); } }
+                    record Item(int value) implements Labeled {}
+                    public static Map<Boolean, List<String>> group(List<Item> items) {
+                        return items.stream()
+                                .filter(item -> item.value() > 0)
+                                .sorted(Comparator.comparingInt(Item::value))
+                                .collect(Collectors.partitioningBy(item -> item.value() % 2 == 0,
+                                        Collectors.mapping(Labeled::label, Collectors.toList())));
+                    }
+                }
+                """;
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("CandidatesProbe.java", source));
+        int[] sizes = new int[3];
+        try {
+            for (int i = 0; i < 2; i++) {
+                int round = i;
+                boolean success = pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                        getClass().getClassLoader(), (ctx, task) -> {
+                            Map<?, ?> cache = Types.instance(ctx).candidatesCache.cache;
+                            // 上一次编译的候选随 newRound 清空
+                            sizes[round] = cache.size();
+                            boolean result = task.call();
+                            sizes[2] = Math.max(sizes[2], cache.size());
+                            return result;
+                        });
+                Assertions.assertTrue(success);
+            }
+            Assertions.assertEquals(1, pool.getStatistics().created());
+            Assertions.assertEquals(0, sizes[0]);
+            Assertions.assertEquals(0, sizes[1]);
+            Assertions.assertTrue(sizes[2] > 0 && sizes[2] <= 4, String.valueOf(sizes[2]));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void pollution() {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        JavacTaskPool pool = compiler.getTaskPool();
+        String probe = """
+                package java.util;
+                public class PoolProbe {
+                    public static int value() {
+                        return 1;
+                    }
+                }
+                """;
+        String voidSource = "package java.lang; public final class Void {}";
+        try {
+            // 在 java.* 包中新增类：原地修复，Context 继续复用，不计入污染次数
+            for (int i = 0; i < 2; i++) {
+                Assertions.assertTrue(compiler.compile("java/util/PoolProbe.java", probe).isSuccessful());
+            }
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            Assertions.assertEquals(2, pool.getStatistics().repaired());
+            Assertions.assertEquals(0, pool.getStatistics().isolated());
+            Assertions.assertEquals(1, pool.getStatistics().created());
+
+            // 重定义 JDK 中已有的核心类：无法修复，隔离
+            compiler.compile("java/lang/Void.java", voidSource);
+            Assertions.assertEquals(1, pool.getStatistics().polluted());
+            Assertions.assertEquals(1, pool.getQuarantine().size());
+            Assertions.assertEquals(0, pool.getStatistics().idle());
+
+            // 达到 repeatOffenderThreshold 次后在一次性的 Context 上编译，池中的 Context 不受影响
+            compiler.compile("java/lang/Void.java", voidSource);
+            Assertions.assertEquals(0, pool.getStatistics().isolated());
+            Assertions.assertTrue(compiler.compile("LambdaContainer.java", lambdaSource).isSuccessful());
+            compiler.compile("java/lang/Void.java", voidSource);
+            Assertions.assertEquals(1, pool.getStatistics().isolated());
+            Assertions.assertEquals(1, pool.getStatistics().idle());
+        } finally {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.muyuanjin.compiler.impl;
+
+import com.muyuanjin.compiler.CompilationResult;
+import com.muyuanjin.compiler.CompilerProfile;
+import com.muyuanjin.compiler.util.JMethods;
+import com.sun.tools.javac.util.Name;
+import com.sun.tools.javac.util.Names;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.tools.JavaFileObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 池中的 Context 之间共享的文件系统和名字表
+ */
+class JavacTaskPoolSharingTest {
+    /**
+     * 引用类路径上 jar 包中的类，使文件管理器打开 jar 包
+     */
+    private static final String archiveProbe = """
+            public class ArchiveProbe {
+                public static String name() {
+                    return org.junit.jupiter.api.Assertions.class.getSimpleName();
+                }
+            }
+            """;
+
+    @Test
+    public void sharedFileSystems() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .sharedFileSystems(true)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("ArchiveProbe.java", archiveProbe));
+        try {
+            Assertions.assertTrue(compiler.compile("ArchiveProbe.java", archiveProbe).isSuccessful());
+            int archives = pool.getStatistics().sharedArchives();
+            Assertions.assertTrue(archives > 0);
+
+            // 第二个 Context 使用已共享的 jar 包，不再自己打开
+            boolean success = pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                    getClass().getClassLoader(), (ctx, task) -> {
+                        Assertions.assertTrue(compiler.compile("ArchiveProbe.java", archiveProbe).isSuccessful());
+                        return task.call();
+                    });
+            Assertions.assertTrue(success);
+            Assertions.assertEquals(2, pool.getStatistics().created());
+            Assertions.assertEquals(archives, pool.getStatistics().sharedArchives());
+        } finally {
+            pool.close();
+        }
+        // 所有 Context 关闭后共享的 jar 包随之关闭
+        Assertions.assertEquals(0, pool.getStatistics().sharedArchives());
+    }
+
+    @Test
+    public void sharedFileSystemsDisabledByDefault() {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(4);
+        try {
+            Assertions.assertTrue(compiler.compile("ArchiveProbe.java", archiveProbe).isSuccessful());
+            Assertions.assertEquals(0, compiler.getTaskPool().getStatistics().sharedArchives());
+        } finally {
+            compiler.getTaskPool().close();
+        }
+    }
+
+    @Test
+    public void sharedNames() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .sharedNames(true)
+                .build());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // 多个 Context 并发地使用同一个名字表
+            List<Future<CompilationResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                String name = "Generated" + i;
+                futures.add(executor.submit(() -> compiler.compile(name + ".java",
+                        "public class " + name + " { public static int value() { return java.util.List.of(1, 2).size(); } }")));
+            }
+            for (Future<CompilationResult> future : futures) {
+                Assertions.assertEquals(2, JMethods.<Integer>invokeStatic(future.get().loadSingle(), "value"));
+            }
+            Assertions.assertTrue(compiler.getTaskPool().getStatistics().sharedNameBytes() > 0);
+        } finally {
+            executor.shutdown();
+            compiler.getTaskPool().close();
+        }
+    }
+
+    @Test
+    public void sharedNameTableResize() throws Exception {
+        NativeJavaCompiler compiler = new NativeJavaCompiler(JavacTaskPoolSettings.builder()
+                .sharedNames(true)
+                .build());
+        JavacTaskPool pool = compiler.getTaskPool();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<JavaFileObject> units = List.of(new MemoryInputJavaFileObject("ArchiveProbe.java", archiveProbe));
+            Name.Table table = pool.getTask(null, null, CompilerProfile.of(compiler.getSettings()), null, units,
+                    getClass().getClassLoader(), (ctx, task) -> Names.instance(ctx).table);
+            long bytes = pool.getStatistics().sharedNameBytes();
+            // 并发插入远超初始桶数的名字，扩容期间的插入和查找仍然得到唯一的实例
+            int count = 100_000;
+            List<Future<List<Name>>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    List<Name> names = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        names.add(table.fromString("resize" + i));
+                    }
+                    return names;
+                }));
+            }
+            List<Name> expected = futures.get(0).get();
+            for (Future<List<Name>> future : futures) {
+                List<Name> names = future.get();
+                for (int i = 0; i < count; i++) {
+                    Assertions.assertSame(expected.get(i), names.get(i));
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                Assertions.assertSame(expected.get(i), table.fromString("resize" + i));
+            }
+            Assertions.assertTrue(pool.getStatistics().sharedNameBytes() > bytes);
+        } finally {
+            executor.shutdown();
+            pool.close();
+        }
+    }
+}